@@ -0,0 +1,63 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures an enabled logging call under each {@link CaptureMode}. Under
+ * COUNT_ONLY gc.alloc.rate.norm should be 0 bytes per operation; the bounded
+ * and unbounded modes are cleared periodically so the heap does not fill.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CaptureModeBenchmark {
+
+    private static final int EVENTS_BETWEEN_CLEARS = 4096;
+
+    @Param({ "UNBOUNDED", "RING_BUFFER", "COMPRESSED", "OFF_HEAP", "COUNT_ONLY" })
+    public CaptureMode captureMode;
+
+    private TestLogger logger;
+
+    @State(Scope.Thread)
+    public static class EventCount {
+        int count;
+    }
+
+    @Setup
+    public void setUp() {
+        TestLoggerFactory.getInstance().setCaptureMode(captureMode, 1024);
+        logger = TestLoggerFactory.getTestLogger(CaptureModeBenchmark.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED);
+    }
+
+    @Benchmark
+    public void infoEnabled(final EventCount eventCount) {
+        logger.info("message {}", "arg");
+        if (++eventCount.count % EVENTS_BETWEEN_CLEARS == 0) {
+            TestLoggerFactory.clearAll();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Marker;
+import org.slf4j.helpers.BasicMarkerFactory;
+
+import uk.org.lidalia.slf4jext.Level;
+
+/**
+ * Measures logging calls on a level that is disabled. Run with the GC profiler
+ * (the default for the benchmarks profile) and gc.alloc.rate.norm should be 0
+ * bytes per operation for every benchmark.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DisabledLevelBenchmark {
+
+    private final Marker marker = new BasicMarkerFactory().getMarker("benchmark");
+    private final Object arg1 = "arg1";
+    private final Object arg2 = "arg2";
+    private final Object arg3 = "arg3";
+    private final Throwable throwable = new Throwable();
+    private TestLogger logger;
+
+    @Setup
+    public void setUp() {
+        logger = TestLoggerFactory.getTestLogger(DisabledLevelBenchmark.class);
+        logger.setEnabledLevelsForAllThreads(Level.ERROR);
+    }
+
+    @TearDown
+    public void tearDown() {
+        logger.clearAll();
+    }
+
+    @Benchmark
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    @Benchmark
+    public void debugMessage() {
+        logger.debug("message");
+    }
+
+    @Benchmark
+    public void debugOneArg() {
+        logger.debug("message {}", arg1);
+    }
+
+    @Benchmark
+    public void debugTwoArgs() {
+        logger.debug("message {} {}", arg1, arg2);
+    }
+
+    @Benchmark
+    public void debugManyArgs() {
+        logger.debug("message {} {} {}", arg1, arg2, arg3);
+    }
+
+    @Benchmark
+    public void debugThrowable() {
+        logger.debug("message", throwable);
+    }
+
+    @Benchmark
+    public void debugMarkerTwoArgs() {
+        logger.debug(marker, "message {} {}", arg1, arg2);
+    }
+
+    @Benchmark
+    public void debugMarkerThrowable() {
+        logger.debug(marker, "message", throwable);
+    }
+}
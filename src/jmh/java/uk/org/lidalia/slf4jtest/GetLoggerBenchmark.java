@@ -0,0 +1,74 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures getting a logger that already exists, and one that does not, with
+ * many threads contending. Run with the GC profiler (the default for the
+ * benchmarks profile) and gc.alloc.rate.norm should be 0 bytes per operation
+ * for the hits.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(16)
+@State(Scope.Benchmark)
+public class GetLoggerBenchmark {
+
+    private static final int EXISTING_LOGGERS = 1024;
+
+    private final String[] existingNames = new String[EXISTING_LOGGERS];
+
+    @State(Scope.Thread)
+    public static class Names {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        final String prefix = "missing." + THREADS.incrementAndGet() + ".";
+        int next;
+    }
+
+    @Setup(Level.Iteration)
+    public void createExistingLoggers() {
+        for (int i = 0; i < existingNames.length; i++) {
+            existingNames[i] = "existing." + i;
+            TestLoggerFactory.getTestLogger(existingNames[i]);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeLoggers() {
+        // the misses would otherwise fill the heap
+        TestLoggerFactory.reset();
+    }
+
+    @Benchmark
+    public TestLogger hit(final Names names) {
+        return TestLoggerFactory.getTestLogger(existingNames[names.next++ & EXISTING_LOGGERS - 1]);
+    }
+
+    @Benchmark
+    public TestLogger hitByClass() {
+        return TestLoggerFactory.getTestLogger(GetLoggerBenchmark.class);
+    }
+
+    @Benchmark
+    public TestLogger miss(final Names names) {
+        return TestLoggerFactory.getTestLogger(names.prefix + names.next++);
+    }
+}
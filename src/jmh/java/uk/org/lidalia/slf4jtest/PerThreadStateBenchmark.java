@@ -0,0 +1,86 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.lidalia.slf4jext.Level;
+
+/**
+ * Compares the per thread lookup done by {@link ResettableThreadLocal} with
+ * that of {@link uk.org.lidalia.lang.ThreadLocal}, and measures the logger
+ * operations that depend on it, with many threads contending.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class PerThreadStateBenchmark {
+
+    private static final int EVENTS_BETWEEN_CLEARS = 4096;
+
+    private final uk.org.lidalia.lang.ThreadLocal<String> lidaliaThreadLocal = new uk.org.lidalia.lang.ThreadLocal<>("value");
+    private final ResettableThreadLocal<String> resettableThreadLocal = new ResettableThreadLocal<>("value");
+    private TestLogger enabledLogger;
+    private TestLogger disabledLogger;
+
+    @State(Scope.Thread)
+    public static class EventCount {
+        int count;
+    }
+
+    @Setup
+    public void setUp() {
+        enabledLogger = TestLoggerFactory.getTestLogger("enabled");
+        disabledLogger = TestLoggerFactory.getTestLogger("disabled");
+        disabledLogger.setEnabledLevelsForAllThreads(Level.ERROR);
+    }
+
+    @TearDown
+    public void tearDown() {
+        TestLoggerFactory.clearAll();
+    }
+
+    @Benchmark
+    public String lidaliaThreadLocalGet() {
+        return lidaliaThreadLocal.get();
+    }
+
+    @Benchmark
+    public String resettableThreadLocalGet() {
+        return resettableThreadLocal.get();
+    }
+
+    @Benchmark
+    public boolean isDebugEnabled() {
+        return disabledLogger.isDebugEnabled();
+    }
+
+    @Benchmark
+    public void debugDisabled() {
+        disabledLogger.debug("message {}", "arg");
+    }
+
+    @Benchmark
+    public void infoEnabled(final EventCount eventCount) {
+        enabledLogger.info("message {}", "arg");
+        if (++eventCount.count % EVENTS_BETWEEN_CLEARS == 0) {
+            TestLoggerFactory.clearAll();
+            disabledLogger.setEnabledLevelsForAllThreads(Level.ERROR);
+        }
+    }
+}
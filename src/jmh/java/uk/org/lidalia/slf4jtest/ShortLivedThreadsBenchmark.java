@@ -0,0 +1,116 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Logs one event from each of a million short lived threads, a batch of
+ * which are alive at once, under each {@link ThreadStorage}, and checks that
+ * once they have ended the heap retained is bounded by the events captured
+ * rather than growing with per thread state.
+ * <p/>
+ * The threads are platform threads, as this library targets Java 8; on Java
+ * 21 starting them with Thread.ofVirtual() instead exercises virtual
+ * threads, to which the same per thread costs apply.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ShortLivedThreadsBenchmark {
+
+    private static final int THREADS = 1000000;
+    private static final int ALIVE_AT_ONCE = 10000;
+    private static final long MAX_RETAINED_PER_THREAD = 1024;
+
+    @Param({ "THREAD_LOCAL", "SHARED" })
+    public ThreadStorage threadStorage;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private TestLogger logger;
+    private long heapBefore;
+
+    @Setup
+    public void setUp() {
+        TestLoggerFactory.getInstance().setThreadStorage(threadStorage);
+        logger = TestLoggerFactory.getTestLogger(ShortLivedThreadsBenchmark.class);
+    }
+
+    @Setup(Level.Iteration)
+    public void measureHeapBefore() {
+        TestLoggerFactory.clearAll();
+        heapBefore = usedHeapAfterGc();
+    }
+
+    @TearDown(Level.Iteration)
+    public void checkHeapIsBounded() {
+        final long retainedPerThread = (usedHeapAfterGc() - heapBefore) / THREADS;
+        System.out.println("Retained per thread: " + retainedPerThread + " bytes");
+        if (retainedPerThread > MAX_RETAINED_PER_THREAD) {
+            throw new IllegalStateException("Retained " + retainedPerThread + " bytes per ended thread, more than "
+                    + MAX_RETAINED_PER_THREAD);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        TestLoggerFactory.getInstance().setThreadStorage(ThreadStorage.THREAD_LOCAL);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREADS)
+    public void logFromShortLivedThreads() throws InterruptedException {
+        for (int started = 0; started < THREADS; started += ALIVE_AT_ONCE) {
+            final CountDownLatch allAlive = new CountDownLatch(ALIVE_AT_ONCE);
+            final Thread[] batch = new Thread[ALIVE_AT_ONCE];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        logger.info("message {}", "arg");
+                        allAlive.countDown();
+                        awaitQuietly(allAlive);
+                    }
+                });
+                batch[i].start();
+            }
+            for (final Thread thread : batch) {
+                thread.join();
+            }
+        }
+    }
+
+    private long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package uk.org.lidalia.slf4jtest;
+
+
+/**
+ * How {@link TestLogger}s, and the {@link TestLoggerFactory}, keep the
+ * {@link LoggingEvent}s they capture. Set via
+ * {@link TestLoggerFactory#setCaptureMode(CaptureMode, int)} or the
+ * capture.mode and capture.capacity properties.
+ */
+public enum CaptureMode
+{
+
+    /**
+     * Every event is kept until it is cleared. The default.
+     */
+    UNBOUNDED
+    {
+        @Override
+        EventStore<LoggingEvent> newEventStore(final int capacity)
+        {
+            return new EventLog<>(new EventSizer());
+        }
+    },
+
+    /**
+     * Only the most recent events, up to the capture capacity, are kept by
+     * each logger and by the factory. Older events are dropped and counted;
+     * see {@link TestLogger#getDroppedLoggingEventCount()}. A thread's events
+     * are those of the kept events it logged; no more are kept for each
+     * thread. Intended for long running tests that would otherwise run out of
+     * memory.
+     */
+    RING_BUFFER
+    {
+        @Override
+        EventStore<LoggingEvent> newEventStore(final int capacity)
+        {
+            return new RingBuffer<>(capacity, new EventSizer());
+        }
+    },
+
+    /**
+     * Every event is kept until it is cleared, as with {@link #UNBOUNDED}, but
+     * all but the most recent events are compressed, in the background, in
+     * segments that are inflated again when they are read. Decoded events are
+     * equal to those logged, with the same arguments and throwables, so reads
+     * do not depend on whether compression has caught up. See
+     * {@link TestLogger#getCompressionRatio()}. Intended for long runs whose
+     * events are rarely read.
+     */
+    COMPRESSED
+    {
+        @Override
+        EventStore<LoggingEvent> newEventStore(final int capacity)
+        {
+            return new CompressedEventStore();
+        }
+    },
+
+    /**
+     * Every event is kept until it is cleared, as with {@link #UNBOUNDED}, but
+     * encoded in direct memory rather than held on the heap, so that tests
+     * capturing many millions of events do not suffer long garbage
+     * collections. Events are decoded when they are read; their arguments
+     * are decoded as their {@link String#valueOf(Object) string values}.
+     */
+    OFF_HEAP
+    {
+        @Override
+        EventStore<LoggingEvent> newEventStore(final int capacity)
+        {
+            return new OffHeapEventStore();
+        }
+    },
+
+    /**
+     * No events are kept, nor printed; {@link TestLogger}s only count the
+     * calls made at each enabled level. See
+     * {@link TestLogger#getEventCounts()}. Intended for load tests and
+     * benchmarks, where storing events would distort the results.
+     */
+    COUNT_ONLY
+    {
+        @Override
+        EventStore<LoggingEvent> newEventStore(final int capacity)
+        {
+            // nothing is ever added, so this never allocates any chunks
+            return new EventLog<>();
+        }
+    };
+
+
+    abstract EventStore<LoggingEvent> newEventStore(int capacity);
+}
@@ -0,0 +1,388 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.google.common.util.concurrent.ForwardingExecutorService;
+
+
+/**
+ * Captures the {@link LoggingEvent}s created by a unit of work, whichever
+ * threads it runs on, so that tests of asynchronous code can assert on them
+ * without using the all threads APIs, and so stay safe to run in parallel.
+ * <p/>
+ * A scope is opened by {@link TestLoggerFactory#openScope()} and is current
+ * on the opening thread until it is {@link #close() closed}:
+ *
+ * <pre>
+ * try(CaptureScope scope = TestLoggerFactory.openScope())
+ * {
+ *     service.doAsync(CaptureScope.propagating(executor)).join();
+ *     assertThat(scope.getEvents(), contains(info("done")));
+ * }
+ * </pre>
+ *
+ * Work handed to another thread carries the scope with it if it is wrapped
+ * by {@link #wrap(Runnable)} or {@link #wrap(Callable)}, run by
+ * {@link #runAsync(Runnable, Executor)} or
+ * {@link #supplyAsync(Supplier, Executor)}, or submitted to an executor
+ * wrapped by {@link #propagating(Executor)}; the scope is current on the
+ * other thread while the work runs. Events are also captured by any scope
+ * the current one was opened within.
+ * <p/>
+ * Each scope keeps its own events, appended without contention by each
+ * thread as in {@link PerThreadEventStore}, so {@link #getEvents()} does not
+ * search the events of all threads. Events are captured as well as, not
+ * instead of, being added to the loggers and the factory.
+ */
+public final class CaptureScope implements AutoCloseable
+{
+
+    private static final java.lang.ThreadLocal<CaptureScope> CURRENT = new java.lang.ThreadLocal<>();
+
+
+    /**
+     * @return an executor that runs each task in the scope that was current
+     *         on the thread that submitted it, if any
+     */
+    public static Executor propagating(final Executor executor)
+    {
+        checkNotNull(executor);
+        return (final Runnable task) -> executor.execute(wrapInCurrent(task));
+    }
+
+
+    /**
+     * @return an executor service that runs each task in the scope that was
+     *         current on the thread that submitted it, if any
+     */
+    public static ExecutorService propagating(final ExecutorService executorService)
+    {
+        return new PropagatingExecutorService(executorService);
+    }
+
+
+    static CaptureScope open()
+    {
+        final CaptureScope scope = new CaptureScope(CURRENT.get(), Thread.currentThread());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+
+    /**
+     * Adds the event to the scope current on the calling thread, if any, and
+     * those it was opened within.
+     */
+    static void addToCurrent(final LoggingEvent event)
+    {
+        for(CaptureScope scope = CURRENT.get(); scope != null; scope = scope.parent)
+        {
+            if(!scope.closed)
+            {
+                scope.events.add(event);
+            }
+        }
+    }
+
+
+    private static Runnable wrapInCurrent(final Runnable task)
+    {
+        final CaptureScope current = CURRENT.get();
+        return current == null ? checkNotNull(task) : current.wrap(task);
+    }
+
+
+    private static <T> Callable<T> wrapInCurrent(final Callable<T> task)
+    {
+        final CaptureScope current = CURRENT.get();
+        return current == null ? checkNotNull(task) : current.wrap(task);
+    }
+
+    private final CaptureScope parent;
+    private final Thread owner;
+    private final PerThreadEventStore events = new PerThreadEventStore();
+    private volatile boolean closed = false;
+
+
+    private CaptureScope(final CaptureScope parent,
+                         final Thread owner)
+    {
+        this.parent = parent;
+        this.owner = owner;
+    }
+
+
+    /**
+     * @return an immutable list of the events captured by this scope so far,
+     *         from all threads, in {@link LoggingEvent#getSequence()
+     *         sequence} order
+     */
+    public List<LoggingEvent> getEvents()
+    {
+        return events.snapshot();
+    }
+
+
+    /**
+     * @return whether this scope has been closed; a closed scope captures no
+     *         more events
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * @return a task that runs the given one with this scope current
+     */
+    public Runnable wrap(final Runnable task)
+    {
+        checkNotNull(task);
+        return () ->
+        {
+            final CaptureScope previous = enter();
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                exit(previous);
+            }
+        };
+    }
+
+
+    /**
+     * @return a task that runs the given one with this scope current
+     */
+    public <T> Callable<T> wrap(final Callable<T> task)
+    {
+        checkNotNull(task);
+        return () ->
+        {
+            final CaptureScope previous = enter();
+            try
+            {
+                return task.call();
+            }
+            finally
+            {
+                exit(previous);
+            }
+        };
+    }
+
+
+    /**
+     * @return a supplier that calls the given one with this scope current
+     */
+    public <T> Supplier<T> wrap(final Supplier<T> supplier)
+    {
+        checkNotNull(supplier);
+        return () ->
+        {
+            final CaptureScope previous = enter();
+            try
+            {
+                return supplier.get();
+            }
+            finally
+            {
+                exit(previous);
+            }
+        };
+    }
+
+
+    /**
+     * @see CompletableFuture#runAsync(Runnable)
+     */
+    public CompletableFuture<Void> runAsync(final Runnable task)
+    {
+        return CompletableFuture.runAsync(wrap(task));
+    }
+
+
+    /**
+     * @see CompletableFuture#runAsync(Runnable, Executor)
+     */
+    public CompletableFuture<Void> runAsync(final Runnable task,
+                                            final Executor executor)
+    {
+        return CompletableFuture.runAsync(wrap(task), executor);
+    }
+
+
+    /**
+     * @see CompletableFuture#supplyAsync(Supplier)
+     */
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier)
+    {
+        return CompletableFuture.supplyAsync(wrap(supplier));
+    }
+
+
+    /**
+     * @see CompletableFuture#supplyAsync(Supplier, Executor)
+     */
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier,
+                                                final Executor executor)
+    {
+        return CompletableFuture.supplyAsync(wrap(supplier), executor);
+    }
+
+
+    /**
+     * Stops capturing events, and makes the scope this one was opened within,
+     * if any, current on the opening thread again. Events already captured
+     * can still be read. Closing a closed scope does nothing.
+     *
+     * @throws IllegalStateException
+     *             if called from a thread other than the one that opened
+     *             this scope, or while a scope opened within this one is
+     *             still open
+     */
+    @Override
+    public void close()
+    {
+        if(closed)
+        {
+            return;
+        }
+        checkState(Thread.currentThread() == owner, "a capture scope must be closed by the thread that opened it");
+        checkState(CURRENT.get() == this, "a capture scope must be closed after the scopes opened within it");
+        closed = true;
+        exit(parent);
+    }
+
+
+    private CaptureScope enter()
+    {
+        final CaptureScope previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+
+    private static void exit(final CaptureScope previous)
+    {
+        if(previous == null)
+        {
+            // pooled threads should not keep the scope's events reachable
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(previous);
+        }
+    }
+
+
+    private static final class PropagatingExecutorService extends ForwardingExecutorService
+    {
+
+        private final ExecutorService delegate;
+
+
+        PropagatingExecutorService(final ExecutorService delegate)
+        {
+            this.delegate = checkNotNull(delegate);
+        }
+
+
+        @Override
+        protected ExecutorService delegate()
+        {
+            return delegate;
+        }
+
+
+        @Override
+        public void execute(final Runnable command)
+        {
+            delegate.execute(wrapInCurrent(command));
+        }
+
+
+        @Override
+        public Future<?> submit(final Runnable task)
+        {
+            return delegate.submit(wrapInCurrent(task));
+        }
+
+
+        @Override
+        public <T> Future<T> submit(final Runnable task,
+                                    final T result)
+        {
+            return delegate.submit(wrapInCurrent(task), result);
+        }
+
+
+        @Override
+        public <T> Future<T> submit(final Callable<T> task)
+        {
+            return delegate.submit(wrapInCurrent(task));
+        }
+
+
+        @Override
+        public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException
+        {
+            return delegate.invokeAll(wrapAllInCurrent(tasks));
+        }
+
+
+        @Override
+        public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks,
+                                             final long timeout,
+                                             final TimeUnit unit) throws InterruptedException
+        {
+            return delegate.invokeAll(wrapAllInCurrent(tasks), timeout, unit);
+        }
+
+
+        @Override
+        public <T> T invokeAny(final Collection<? extends Callable<T>> tasks) throws InterruptedException,
+                ExecutionException
+        {
+            return delegate.invokeAny(wrapAllInCurrent(tasks));
+        }
+
+
+        @Override
+        public <T> T invokeAny(final Collection<? extends Callable<T>> tasks,
+                               final long timeout,
+                               final TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            return delegate.invokeAny(wrapAllInCurrent(tasks), timeout, unit);
+        }
+
+
+        private static <T> List<Callable<T>> wrapAllInCurrent(final Collection<? extends Callable<T>> tasks)
+        {
+            final List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+            for(final Callable<T> task : tasks)
+            {
+                wrapped.add(wrapInCurrent(task));
+            }
+            return wrapped;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+
+/**
+ * Store that keeps every {@link LoggingEvent} until it is cleared, like
+ * {@link EventLog}, but compresses those that have not been added recently.
+ * <p/>
+ * Events are added to a hot segment. Once it holds {@link #SEGMENT_SIZE}
+ * events it is sealed, and compressed in the background: its events are
+ * encoded by the store's {@link EventCodec}, which replaces each logger,
+ * format and thread by an id, and the result deflated. Until that completes
+ * the sealed segment's events are read as they are; after, the segment is
+ * inflated and decoded whenever it is read. The codec keeps the arguments
+ * and throwables it cannot encode without loss by reference, so a decoded
+ * event is equal to the event that was added, whether or not its segment
+ * has been compressed yet; only string arguments, the message format aside,
+ * are compressed. Views returned by {@link #snapshot()} keep the last segment
+ * they inflated, so iterating one inflates each segment once.
+ * <p/>
+ * {@link #getEstimatedSize()} counts compressed segments by their compressed
+ * size, and {@link #getUncompressedSize()} as if they were not compressed.
+ */
+final class CompressedEventStore implements EventStore<LoggingEvent>
+{
+
+    static final int SEGMENT_SIZE = 1024;
+    private static final long ESTIMATED_ARRAY_SIZE = 16L;
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Executor compressor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private EventCodec codec = new EventCodec(true);
+    private List<Segment> sealed = new ArrayList<>();
+    private List<LoggingEvent> hot = new ArrayList<>();
+    private long hotEncodedSize;
+    private final EventSizer sizer = new EventSizer();
+    private volatile Sizes sizes = new Sizes();
+
+
+    CompressedEventStore()
+    {
+        this(CompressorHolder.INSTANCE);
+    }
+
+
+    /**
+     * @param compressor
+     *            runs the compression of each sealed segment
+     */
+    CompressedEventStore(final Executor compressor)
+    {
+        this.compressor = checkNotNull(compressor);
+    }
+
+
+    @Override
+    public void add(final LoggingEvent element)
+    {
+        checkNotNull(element);
+        final Segment full;
+        lock.lock();
+        try
+        {
+            hot.add(element);
+            final long size = sizer.estimate(element);
+            hotEncodedSize += size - element.estimateReferencedSize();
+            sizes.estimated.add(size);
+            sizes.uncompressed.add(size);
+            if(hot.size() < SEGMENT_SIZE)
+            {
+                return;
+            }
+            full = new Segment(codec, sizes, hot, hotEncodedSize);
+            sealed.add(full);
+            hot = new ArrayList<>();
+            hotEncodedSize = 0L;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        compressor.execute(full::compress);
+    }
+
+
+    /**
+     * @return an immutable view of the events currently held, which inflates
+     *         compressed segments as they are read
+     */
+    @Override
+    public List<LoggingEvent> snapshot()
+    {
+        lock.lock();
+        try
+        {
+            return new View(sealed.toArray(new Segment[sealed.size()]), ImmutableList.copyOf(hot));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        return 0L;
+    }
+
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return sizes.estimated.sum();
+    }
+
+
+    @Override
+    public long getUncompressedSize()
+    {
+        return sizes.uncompressed.sum();
+    }
+
+
+    /**
+     * Discards all events. Views previously returned by {@link #snapshot()}
+     * are unaffected.
+     */
+    @Override
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            codec = new EventCodec(true);
+            sealed = new ArrayList<>();
+            hot = new ArrayList<>();
+            hotEncodedSize = 0L;
+            sizer.reset();
+            sizes = new Sizes();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    private static final class Sizes
+    {
+        private final LongAdder estimated = new LongAdder();
+        private final LongAdder uncompressed = new LongAdder();
+    }
+
+
+    private static final class Segment
+    {
+
+        private final EventCodec codec;
+        private final Sizes sizes;
+        private final long encodedSize;
+        private volatile List<LoggingEvent> events;
+        private volatile byte[] compressed;
+        private int encodedLength;
+
+
+        Segment(final EventCodec codec,
+                final Sizes sizes,
+                final List<LoggingEvent> events,
+                final long encodedSize)
+        {
+            this.codec = codec;
+            this.sizes = sizes;
+            this.events = events;
+            this.encodedSize = encodedSize;
+        }
+
+
+        void compress()
+        {
+            final List<LoggingEvent> toCompress = events;
+            final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            for(final LoggingEvent event : toCompress)
+            {
+                final ByteBuffer buffer = codec.encode(event);
+                encoded.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            }
+            final byte[] bytes = deflate(encoded.toByteArray());
+            encodedLength = encoded.size();
+            // published before the events are released, which readers check first
+            compressed = bytes;
+            events = null;
+            // the throwables the codec keeps by reference are still held
+            sizes.estimated.add(ESTIMATED_ARRAY_SIZE + bytes.length - encodedSize);
+        }
+
+
+        List<LoggingEvent> events()
+        {
+            final List<LoggingEvent> uncompressed = events;
+            return uncompressed != null ? uncompressed : decompress();
+        }
+
+
+        private List<LoggingEvent> decompress()
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap(inflate(compressed, encodedLength));
+            final Object[] dictionary = codec.dictionary();
+            final List<LoggingEvent> decoded = new ArrayList<>(SEGMENT_SIZE);
+            while(buffer.hasRemaining())
+            {
+                decoded.add(EventCodec.decode(buffer, dictionary));
+            }
+            return Collections.unmodifiableList(decoded);
+        }
+
+
+        private static byte[] deflate(final byte[] input)
+        {
+            final Deflater deflater = new Deflater();
+            try
+            {
+                deflater.setInput(input);
+                deflater.finish();
+                final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 4);
+                final byte[] chunk = new byte[CHUNK_SIZE];
+                while(!deflater.finished())
+                {
+                    output.write(chunk, 0, deflater.deflate(chunk));
+                }
+                return output.toByteArray();
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+
+
+        private static byte[] inflate(final byte[] input,
+                                      final int length)
+        {
+            final Inflater inflater = new Inflater();
+            try
+            {
+                inflater.setInput(input);
+                final byte[] output = new byte[length];
+                int inflated = 0;
+                while(inflated < length)
+                {
+                    final int read = inflater.inflate(output, inflated, length - inflated);
+                    if(read == 0 && (inflater.finished() || inflater.needsInput()))
+                    {
+                        throw new IllegalStateException("Compressed logging events are truncated");
+                    }
+                    inflated += read;
+                }
+                return output;
+            }
+            catch(final DataFormatException e)
+            {
+                throw new IllegalStateException("Compressed logging events are corrupt", e);
+            }
+            finally
+            {
+                inflater.end();
+            }
+        }
+    }
+
+
+    private static final class View extends AbstractList<LoggingEvent> implements RandomAccess
+    {
+
+        private final Segment[] sealed;
+        private final List<LoggingEvent> hot;
+        private volatile Inflated lastInflated;
+
+
+        View(final Segment[] sealed,
+             final List<LoggingEvent> hot)
+        {
+            this.sealed = sealed;
+            this.hot = hot;
+        }
+
+
+        @Override
+        public LoggingEvent get(final int index)
+        {
+            if(index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            final int segment = index / SEGMENT_SIZE;
+            if(segment == sealed.length)
+            {
+                return hot.get(index % SEGMENT_SIZE);
+            }
+            Inflated inflated = lastInflated;
+            if(inflated == null || inflated.segment != segment)
+            {
+                inflated = new Inflated(segment, sealed[segment].events());
+                lastInflated = inflated;
+            }
+            return inflated.events.get(index % SEGMENT_SIZE);
+        }
+
+
+        @Override
+        public int size()
+        {
+            return sealed.length * SEGMENT_SIZE + hot.size();
+        }
+    }
+
+
+    private static final class Inflated
+    {
+
+        private final int segment;
+        private final List<LoggingEvent> events;
+
+
+        Inflated(final int segment,
+                 final List<LoggingEvent> events)
+        {
+            this.segment = segment;
+            this.events = events;
+        }
+    }
+
+
+    private static final class CompressorHolder
+    {
+        private static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("slf4j-test-compressor").build());
+    }
+}
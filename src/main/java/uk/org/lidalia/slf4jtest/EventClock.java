@@ -0,0 +1,33 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.time.Instant;
+
+
+/**
+ * The source of the timestamps of {@link LoggingEvent}s created by a
+ * {@link TestLogger}.
+ * <p/>
+ * Capturing the time is split from converting it to an {@link Instant} so that
+ * logging only pays for {@link #tick()}, which should be cheap and should not
+ * allocate; {@link #toInstant(long)} is called when
+ * {@link LoggingEvent#getTimestamp()} is. Implementations are available from
+ * {@link EventClocks} and are set with
+ * {@link TestLoggerFactory#setClock(EventClock)}.
+ */
+public interface EventClock
+{
+
+    /**
+     * @return the current time, in whatever unit and from whatever origin this
+     *         clock chooses
+     */
+    long tick();
+
+
+    /**
+     * @param tick
+     *            a value previously returned by {@link #tick()}
+     * @return the instant that tick represents
+     */
+    Instant toInstant(long tick);
+}
@@ -0,0 +1,155 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Factory methods for the {@link EventClock}s SLF4J Test supports.
+ */
+public final class EventClocks
+{
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final EventClock SYSTEM = new EventClock()
+    {
+        @Override
+        public long tick()
+        {
+            final Instant now = Instant.now();
+            return now.getEpochSecond() * NANOS_PER_SECOND + now.getNano();
+        }
+
+
+        @Override
+        public Instant toInstant(final long tick)
+        {
+            return ofEpochNanos(tick);
+        }
+    };
+
+    private static final EventClock COARSE = new EventClock()
+    {
+        @Override
+        public long tick()
+        {
+            return System.currentTimeMillis();
+        }
+
+
+        @Override
+        public Instant toInstant(final long tick)
+        {
+            return Instant.ofEpochMilli(tick);
+        }
+    };
+
+
+    /**
+     * @return the default clock; as precise as {@link Instant#now()}, but
+     *         correspondingly the most expensive to read
+     */
+    public static EventClock system()
+    {
+        return SYSTEM;
+    }
+
+
+    /**
+     * @return a clock with millisecond precision, read via
+     *         {@link System#currentTimeMillis()}
+     */
+    public static EventClock coarse()
+    {
+        return COARSE;
+    }
+
+
+    /**
+     * @return a clock that records {@link System#nanoTime()} and converts it to
+     *         an {@link Instant} relative to the wall clock time at which this
+     *         method was called; timestamps from it never go backwards, even
+     *         if the system time is changed
+     */
+    public static EventClock monotonic()
+    {
+        final Instant base = Instant.now();
+        final long baseNanos = System.nanoTime();
+        return new EventClock()
+        {
+            @Override
+            public long tick()
+            {
+                return System.nanoTime();
+            }
+
+
+            @Override
+            public Instant toInstant(final long tick)
+            {
+                return base.plusNanos(tick - baseNanos);
+            }
+        };
+    }
+
+
+    /**
+     * @param instant
+     *            the timestamp every event will have
+     * @return a clock that is always at instant
+     */
+    public static EventClock fixed(final Instant instant)
+    {
+        checkNotNull(instant);
+        return new EventClock()
+        {
+            @Override
+            public long tick()
+            {
+                return 0L;
+            }
+
+
+            @Override
+            public Instant toInstant(final long tick)
+            {
+                return instant;
+            }
+        };
+    }
+
+
+    /**
+     * @param start
+     *            the time the clock starts at
+     * @return a clock that only moves when it is told to, for tests that make
+     *         assertions about the timestamps of events
+     */
+    public static VirtualClock virtual(final Instant start)
+    {
+        return new VirtualClock(start);
+    }
+
+
+    static Instant ofEpochNanos(final long epochNanos)
+    {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                                     Math.floorMod(epochNanos, NANOS_PER_SECOND));
+    }
+
+
+    static long toEpochNanos(final Instant instant)
+    {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND),
+                             instant.getNano());
+    }
+
+
+    private EventClocks()
+    {
+        throw new UnsupportedOperationException("Not instantiable");
+    }
+}
@@ -0,0 +1,427 @@
+package uk.org.lidalia.slf4jtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Marker;
+
+import uk.org.lidalia.slf4jext.Level;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Encodes {@link LoggingEvent}s into bytes, and decodes them again, for the
+ * stores that keep events encoded rather than as objects.
+ * <p/>
+ * Each event is encoded as its level, the ids of its logger, clock, thread,
+ * message format, marker and throwable, its timestamp tick and sequence
+ * number, its MDC, and its arguments. The objects behind the ids are interned
+ * in this codec's dictionary, so each distinct logger, format or thread is
+ * held once however many events refer to it; throwables are held there too,
+ * as they cannot be encoded without losing them. String arguments are
+ * encoded; other arguments are either encoded as their
+ * {@link String#valueOf(Object) string values} or, by a codec that
+ * {@link #EventCodec(boolean) keeps arguments}, held in the dictionary by
+ * reference, so that they decode to the same objects. Ids are only ever
+ * added, other than by {@link #rollBack(int)}, so the dictionary taken by
+ * {@link #dictionary()} decodes every event encoded before it was taken.
+ */
+final class EventCodec
+{
+
+    private static final int INITIAL_SCRATCH_SIZE = 512;
+    private static final int NONE = -1;
+    private static final int REFERENCE = -2;
+    private static final int THREAD_OFFSET = Byte.BYTES + Integer.BYTES * 2 + Long.BYTES;
+    private static final Level[] LEVELS = Level.values();
+    private static final java.lang.ThreadLocal<ByteBuffer> SCRATCH = java.lang.ThreadLocal
+            .withInitial(() -> ByteBuffer.allocate(INITIAL_SCRATCH_SIZE));
+
+    private final boolean keepArguments;
+    private final Map<Object, Integer> ids = new ConcurrentHashMap<>();
+    private volatile Object[] values = new Object[16];
+    private int size;
+
+
+    /**
+     * Creates a codec that encodes each argument as its
+     * {@link String#valueOf(Object) string value}.
+     */
+    EventCodec()
+    {
+        this(false);
+    }
+
+
+    /**
+     * @param keepArguments
+     *            whether arguments other than strings are held by reference,
+     *            rather than encoded as their string values
+     */
+    EventCodec(final boolean keepArguments)
+    {
+        this.keepArguments = keepArguments;
+    }
+
+
+    /**
+     * @return the encoded event, in a buffer belonging to the calling thread
+     *         that is only valid until the thread next encodes an event
+     */
+    ByteBuffer encode(final LoggingEvent event)
+    {
+        ByteBuffer buffer = SCRATCH.get();
+        while(true)
+        {
+            buffer.clear();
+            try
+            {
+                write(event, buffer);
+                buffer.flip();
+                return buffer;
+            }
+            catch(final BufferOverflowException tooSmall)
+            {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                SCRATCH.set(buffer);
+            }
+        }
+    }
+
+
+    /**
+     * @return a mark to {@link #rollBack(int) roll back} to
+     */
+    synchronized int mark()
+    {
+        return size;
+    }
+
+
+    /**
+     * Forgets the ids handed out since the mark was taken, such as those of
+     * events that could not be stored after all. Dictionaries taken before
+     * the mark are unaffected.
+     */
+    synchronized void rollBack(final int mark)
+    {
+        for(int id = mark; id < size; id++)
+        {
+            ids.remove(values[id], id);
+            values[id] = null;
+        }
+        size = mark;
+    }
+
+
+    /**
+     * @return the values of all ids handed out so far, indexed by id
+     */
+    Object[] dictionary()
+    {
+        return values;
+    }
+
+
+    /**
+     * @return an immutable list of encoded events, which decodes each event
+     *         when it is asked for
+     * @param regions
+     *            the buffers the events are encoded in
+     * @param index
+     *            buffers holding the {@link #location(int, int) location} of
+     *            each event, in order, 1 << indexShift to a buffer
+     */
+    static List<LoggingEvent> view(final ByteBuffer[] regions,
+                                   final ByteBuffer[] index,
+                                   final int indexShift,
+                                   final Object[] dictionary,
+                                   final int size)
+    {
+        return new View(regions, index, indexShift, dictionary, size);
+    }
+
+
+    /**
+     * @return an immutable list of those of the encoded events that were
+     *         created by the thread with the given id, which decodes each
+     *         event when it is asked for; only the thread of each event is
+     *         read to find them
+     * @see #view(ByteBuffer[], ByteBuffer[], int, Object[], int)
+     */
+    static List<LoggingEvent> viewOfThread(final ByteBuffer[] regions,
+                                           final ByteBuffer[] index,
+                                           final int indexShift,
+                                           final Object[] dictionary,
+                                           final int size,
+                                           final long threadId)
+    {
+        final int indexMask = (1 << indexShift) - 1;
+        long[] matching = new long[16];
+        int matched = 0;
+        for(int position = 0; position < size; position++)
+        {
+            final long location = index[position >>> indexShift].getLong((position & indexMask) * Long.BYTES);
+            final ByteBuffer region = regions[(int) (location >>> Integer.SIZE)];
+            final ThreadMetadata thread = (ThreadMetadata) lookUp(dictionary, region.getInt((int) location + THREAD_OFFSET));
+            if(thread.getId() == threadId)
+            {
+                if(matched == matching.length)
+                {
+                    matching = Arrays.copyOf(matching, matched * 2);
+                }
+                matching[matched++] = location;
+            }
+        }
+        final ByteBuffer matchingIndex = ByteBuffer.allocate(matched * Long.BYTES);
+        for(int i = 0; i < matched; i++)
+        {
+            matchingIndex.putLong(matching[i]);
+        }
+        // a single index buffer, however many events match
+        return new View(regions, new ByteBuffer[] { matchingIndex }, Integer.SIZE - 1, dictionary, matched);
+    }
+
+
+    static long location(final int region,
+                         final int offset)
+    {
+        return (long) region << Integer.SIZE | offset;
+    }
+
+
+    private void write(final LoggingEvent event,
+                       final ByteBuffer buffer)
+    {
+        buffer.put((byte) event.getLevel().ordinal());
+        buffer.putInt(idOf(event.getCreatingLoggerIfPresent()));
+        buffer.putInt(idOf(event.getClock()));
+        buffer.putLong(event.getTick());
+        buffer.putInt(idOf(event.getThread()));
+        buffer.putLong(event.getSequence());
+        buffer.putInt(idOf(event.getMessage()));
+        buffer.putInt(idOf(event.getMarker()));
+        buffer.putInt(idOf(event.getThrowable()));
+        final Map<String, String> mdc = event.getMdc();
+        buffer.putInt(mdc.size());
+        for(final Map.Entry<String, String> entry : mdc.entrySet())
+        {
+            putString(buffer, entry.getKey());
+            putString(buffer, entry.getValue());
+        }
+        final List<Object> arguments = event.getArguments();
+        buffer.putInt(arguments.size());
+        for(final Object argument : arguments)
+        {
+            putArgument(buffer, argument);
+        }
+    }
+
+
+    private void putArgument(final ByteBuffer buffer,
+                             final Object argument)
+    {
+        if(Optional.empty().equals(argument))
+        {
+            // absent arguments are recorded as null, and decoded as absent
+            putString(buffer, null);
+        }
+        else if(keepArguments && !(argument instanceof String))
+        {
+            buffer.putInt(REFERENCE);
+            buffer.putInt(reference(argument));
+        }
+        else
+        {
+            putString(buffer, String.valueOf(argument));
+        }
+    }
+
+
+    /**
+     * @return the event encoded at the buffer's position, which is advanced
+     *         past it
+     */
+    static LoggingEvent decode(final ByteBuffer buffer,
+                               final Object[] dictionary)
+    {
+        final Level level = LEVELS[buffer.get()];
+        final Optional<TestLogger> logger = Optional.ofNullable((TestLogger) lookUp(dictionary, buffer.getInt()));
+        final EventClock clock = (EventClock) lookUp(dictionary, buffer.getInt());
+        final long tick = buffer.getLong();
+        final ThreadMetadata thread = (ThreadMetadata) lookUp(dictionary, buffer.getInt());
+        final long sequence = buffer.getLong();
+        final String message = (String) lookUp(dictionary, buffer.getInt());
+        final Optional<Marker> marker = Optional.ofNullable((Marker) lookUp(dictionary, buffer.getInt()));
+        final Optional<Throwable> throwable = Optional.ofNullable((Throwable) lookUp(dictionary, buffer.getInt()));
+        final int mdcSize = buffer.getInt();
+        final Map<String, String> mdc = mdcSize == 0 ? ImmutableMap.<String, String> of() : new HashMap<String, String>();
+        for(int i = 0; i < mdcSize; i++)
+        {
+            mdc.put(getString(buffer), getString(buffer));
+        }
+        final Object[] arguments = new Object[buffer.getInt()];
+        for(int i = 0; i < arguments.length; i++)
+        {
+            arguments[i] = getArgument(buffer, dictionary);
+        }
+        return new LoggingEvent(logger, level, mdc, marker, throwable, message, arguments, clock, tick, thread, sequence);
+    }
+
+
+    private int idOf(final Optional<?> value)
+    {
+        return value.isPresent() ? idOf(value.get()) : NONE;
+    }
+
+
+    private int idOf(final Object value)
+    {
+        final Integer id = ids.get(value);
+        return id == null ? add(value) : id;
+    }
+
+
+    private synchronized int add(final Object value)
+    {
+        final Integer existing = ids.get(value);
+        if(existing != null)
+        {
+            return existing;
+        }
+        // the value is published before its id, so that any event encoded
+        // with the id can be decoded by the dictionary taken after it
+        final int id = append(value);
+        ids.put(value, id);
+        return id;
+    }
+
+
+    /**
+     * Gives the value an id of its own, without interning it: arguments are
+     * often mutable, and their equality is not this codec's to rely on.
+     */
+    private synchronized int reference(final Object value)
+    {
+        return append(value);
+    }
+
+
+    private int append(final Object value)
+    {
+        if(size == values.length)
+        {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        return size++;
+    }
+
+
+    private static Object lookUp(final Object[] dictionary,
+                                 final int id)
+    {
+        return id == NONE ? null : dictionary[id];
+    }
+
+
+    private static void putString(final ByteBuffer buffer,
+                                  final String value)
+    {
+        if(value == null)
+        {
+            buffer.putInt(NONE);
+        }
+        else
+        {
+            final byte[] bytes = value.getBytes(UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+
+    private static Object getArgument(final ByteBuffer buffer,
+                                      final Object[] dictionary)
+    {
+        final int length = buffer.getInt(buffer.position());
+        if(length == REFERENCE)
+        {
+            buffer.getInt();
+            return dictionary[buffer.getInt()];
+        }
+        return getString(buffer);
+    }
+
+
+    private static String getString(final ByteBuffer buffer)
+    {
+        final int length = buffer.getInt();
+        if(length == NONE)
+        {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+
+    private static final class View extends AbstractList<LoggingEvent> implements RandomAccess
+    {
+
+        private final ByteBuffer[] regions;
+        private final ByteBuffer[] index;
+        private final int indexShift;
+        private final int indexMask;
+        private final Object[] dictionary;
+        private final int size;
+
+
+        View(final ByteBuffer[] regions,
+             final ByteBuffer[] index,
+             final int indexShift,
+             final Object[] dictionary,
+             final int size)
+        {
+            this.regions = regions;
+            this.index = index;
+            this.indexShift = indexShift;
+            this.indexMask = (1 << indexShift) - 1;
+            this.dictionary = dictionary;
+            this.size = size;
+        }
+
+
+        @Override
+        public LoggingEvent get(final int position)
+        {
+            if(position < 0 || position >= size)
+            {
+                throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+            }
+            final long location = index[position >>> indexShift].getLong((position & indexMask) * Long.BYTES);
+            final ByteBuffer buffer = regions[(int) (location >>> Integer.SIZE)].duplicate();
+            buffer.position((int) location);
+            return decode(buffer, dictionary);
+        }
+
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+}
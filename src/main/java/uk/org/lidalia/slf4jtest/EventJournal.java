@@ -0,0 +1,299 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+
+/**
+ * Append only journal of {@link LoggingEvent}s in temporary files, encoded by
+ * an {@link EventCodec} that keeps their arguments; used by {@link EventSpill}
+ * to keep older events off the heap.
+ * <p/>
+ * Events are written through a {@link FileChannel}, in batches, to a data
+ * file divided into regions that no event straddles, and the location of each
+ * is written to an index file. They are read back through
+ * {@link MappedByteBuffer}s: regions that are full are mapped once and the
+ * mappings shared by every {@link #view()}. Channels are only open while
+ * appending or mapping, so a journal holds no file descriptors between them,
+ * and mappings outlive the deletion of their files, so views are unaffected
+ * by {@link #delete()}.
+ * <p/>
+ * Appending is split in two, so that the owning spill need not hold its
+ * lock while the files are written: {@link #append(List)} writes the events
+ * past the end of the journal without changing what it holds, and
+ * {@link #commit(Appended)} then adds them. Appends must not overlap, and
+ * must each be committed, or abandoned, before the next; commits, views and
+ * deletion must be guarded by the spill's lock.
+ */
+final class EventJournal
+{
+
+    static final int REGION_SIZE = 1 << 26;
+    private static final int INDEX_SHIFT = 23;
+    private static final int INDEX_REGION_SIZE = (1 << INDEX_SHIFT) * Long.BYTES;
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private final Supplier<Path> directory;
+    private final EventCodec codec = new EventCodec(true);
+    private final List<Long> regionStarts = new ArrayList<>();
+    private final List<ByteBuffer> fullRegions = new ArrayList<>();
+    private final List<ByteBuffer> fullIndexRegions = new ArrayList<>();
+    private Path dataFile;
+    private Path indexFile;
+    private long regionEnd;
+    private long length;
+    private int size;
+
+
+    /**
+     * @param directory
+     *            supplies the directory to create the journal's files in,
+     *            when the first events are appended
+     */
+    EventJournal(final Supplier<Path> directory)
+    {
+        this.directory = checkNotNull(directory);
+    }
+
+
+    /**
+     * Writes the events, in the order given, past the end of the journal;
+     * they are only part of it once {@link #commit(Appended) committed}. If
+     * writing fails the journal is left as it was, and any bytes written past
+     * its end are overwritten by the next append.
+     */
+    Appended append(final List<LoggingEvent> events) throws IOException
+    {
+        createFiles();
+        final ByteBuffer locations = ByteBuffer.allocate(events.size() * Long.BYTES);
+        final ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE);
+        final List<Long> newRegionStarts = new ArrayList<>();
+        final int codecMark = codec.mark();
+        long newLength = length;
+        long newRegionEnd = regionEnd;
+        boolean written = false;
+        try
+        {
+            try(FileChannel data = FileChannel.open(dataFile, WRITE))
+            {
+                long batchStart = newLength;
+                for(final LoggingEvent event : events)
+                {
+                    final ByteBuffer encoded = codec.encode(event);
+                    final int eventLength = encoded.remaining();
+                    if(newLength + eventLength > newRegionEnd)
+                    {
+                        newRegionStarts.add(newLength);
+                        newRegionEnd = newLength + Math.max(REGION_SIZE, eventLength);
+                    }
+                    final int region = regionStarts.size() + newRegionStarts.size() - 1;
+                    final long regionStart = newRegionStarts.isEmpty()
+                            ? regionStarts.get(region)
+                            : newRegionStarts.get(newRegionStarts.size() - 1);
+                    locations.putLong(EventCodec.location(region, (int) (newLength - regionStart)));
+                    if(batch.remaining() < eventLength)
+                    {
+                        flush(data, batch, batchStart);
+                        batchStart = newLength;
+                    }
+                    if(eventLength > BATCH_SIZE)
+                    {
+                        write(data, encoded, newLength);
+                        batchStart = newLength + eventLength;
+                    }
+                    else
+                    {
+                        batch.put(encoded);
+                    }
+                    newLength += eventLength;
+                }
+                flush(data, batch, batchStart);
+            }
+            try(FileChannel index = FileChannel.open(indexFile, WRITE))
+            {
+                flush(index, locations, (long) size * Long.BYTES);
+            }
+            written = true;
+        }
+        finally
+        {
+            if(!written)
+            {
+                codec.rollBack(codecMark);
+            }
+        }
+        return new Appended(events.size(), newRegionStarts, newRegionEnd, newLength);
+    }
+
+
+    /**
+     * Adds the events written by the last append to the journal.
+     *
+     * @return the position of the first of them
+     */
+    int commit(final Appended appended)
+    {
+        final int first = size;
+        regionStarts.addAll(appended.regionStarts);
+        regionEnd = appended.regionEnd;
+        length = appended.length;
+        size += appended.count;
+        return first;
+    }
+
+
+    /**
+     * @return the number of events appended so far
+     */
+    int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return an immutable view of the events appended so far, which decodes
+     *         each event when it is asked for
+     */
+    List<LoggingEvent> view() throws IOException
+    {
+        if(size == 0)
+        {
+            return Collections.emptyList();
+        }
+        final ByteBuffer[] regions = new ByteBuffer[regionStarts.size()];
+        final ByteBuffer[] index = new ByteBuffer[((size - 1) >>> INDEX_SHIFT) + 1];
+        try(FileChannel data = FileChannel.open(dataFile, READ))
+        {
+            while(fullRegions.size() < regions.length - 1)
+            {
+                final int region = fullRegions.size();
+                fullRegions.add(map(data, regionStarts.get(region), regionStarts.get(region + 1)));
+            }
+            fullRegions.toArray(regions);
+            regions[regions.length - 1] = map(data, regionStarts.get(regions.length - 1), length);
+        }
+        try(FileChannel locations = FileChannel.open(indexFile, READ))
+        {
+            final long indexLength = (long) size * Long.BYTES;
+            while(fullIndexRegions.size() < indexLength / INDEX_REGION_SIZE)
+            {
+                final long start = (long) fullIndexRegions.size() * INDEX_REGION_SIZE;
+                fullIndexRegions.add(map(locations, start, start + INDEX_REGION_SIZE));
+            }
+            fullIndexRegions.toArray(index);
+            if(fullIndexRegions.size() < index.length)
+            {
+                index[index.length - 1] = map(locations, (long) fullIndexRegions.size() * INDEX_REGION_SIZE, indexLength);
+            }
+        }
+        return EventCodec.view(regions, index, INDEX_SHIFT, codec.dictionary(), size);
+    }
+
+
+    /**
+     * Deletes the journal's files. Files that cannot be deleted, such as
+     * those still mapped on platforms that do not permit that, are left to be
+     * deleted when the JVM exits.
+     */
+    void delete()
+    {
+        for(final Path file : new Path[] { dataFile, indexFile })
+        {
+            if(file != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(file);
+                }
+                catch(final IOException e)
+                {
+                    // deleted on exit instead
+                }
+            }
+        }
+    }
+
+
+    private void createFiles() throws IOException
+    {
+        if(dataFile == null)
+        {
+            final Path parent = directory.get();
+            final Path data = Files.createTempFile(parent, "events", ".journal");
+            data.toFile().deleteOnExit();
+            final Path index = Files.createTempFile(parent, "events", ".index");
+            index.toFile().deleteOnExit();
+            dataFile = data;
+            indexFile = index;
+        }
+    }
+
+
+    private static void flush(final FileChannel channel,
+                              final ByteBuffer buffer,
+                              final long position) throws IOException
+    {
+        buffer.flip();
+        write(channel, buffer, position);
+        buffer.clear();
+    }
+
+
+    private static void write(final FileChannel channel,
+                              final ByteBuffer buffer,
+                              final long position) throws IOException
+    {
+        long written = 0L;
+        while(buffer.hasRemaining())
+        {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+
+    private static MappedByteBuffer map(final FileChannel channel,
+                                        final long start,
+                                        final long end) throws IOException
+    {
+        return channel.map(MapMode.READ_ONLY, start, end - start);
+    }
+
+
+    /**
+     * Events written past the end of the journal, to be committed.
+     */
+    static final class Appended
+    {
+
+        private final int count;
+        private final List<Long> regionStarts;
+        private final long regionEnd;
+        private final long length;
+
+
+        private Appended(final int count,
+                         final List<Long> regionStarts,
+                         final long regionEnd,
+                         final long length)
+        {
+            this.count = count;
+            this.regionStarts = regionStarts;
+            this.regionEnd = regionEnd;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Append only store of elements made up of fixed size chunks.
+ * <p/>
+ * Appends are lock free: a writer reserves a slot by incrementing a counter
+ * and then writes its element into that slot, so writers never copy or
+ * contend on anything but the counter. No chunk is allocated until the first
+ * element is added. {@link #snapshot()} returns an immutable view over the
+ * longest prefix of slots that have all been written, without copying any
+ * elements. Elements are presented in the order their slots were reserved.
+ * Nothing is ever dropped.
+ *
+ * @param <T>
+ *            the type of the elements in this log
+ */
+final class EventLog<T> implements EventStore<T>
+{
+
+    static final int CHUNK_SIZE = 256;
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_SIZE);
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final AtomicReference<Chunks<T>> chunks = new AtomicReference<>();
+    private final SizeEstimator<? super T> sizeEstimator;
+    private final LongAdder estimatedSize = new LongAdder();
+
+
+    EventLog()
+    {
+        this(element -> 0L);
+    }
+
+
+    /**
+     * @param sizeEstimator
+     *            estimates the heap retained by each element
+     */
+    EventLog(final SizeEstimator<? super T> sizeEstimator)
+    {
+        this.sizeEstimator = checkNotNull(sizeEstimator);
+    }
+
+
+    @Override
+    public void add(final T element)
+    {
+        checkNotNull(element);
+        Chunks<T> current = chunks.get();
+        if(current == null)
+        {
+            chunks.compareAndSet(null, new Chunks<T>());
+            current = chunks.get();
+        }
+        current.add(element);
+        estimatedSize.add(sizeEstimator.estimate(element));
+    }
+
+
+    /**
+     * @return an immutable view of all elements whose writes have completed,
+     *         up to the first slot that is still being written
+     */
+    @Override
+    public List<T> snapshot()
+    {
+        final Chunks<T> current = chunks.get();
+        return current == null ? Collections.<T> emptyList() : current.snapshot();
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        return 0L;
+    }
+
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return estimatedSize.sum();
+    }
+
+
+    /**
+     * Discards all elements. Views previously returned by
+     * {@link #snapshot()} are unaffected.
+     */
+    @Override
+    public void clear()
+    {
+        chunks.set(null);
+        estimatedSize.reset();
+        sizeEstimator.reset();
+    }
+
+
+    private static final class Chunks<T>
+    {
+
+        private final Chunk<T> head = new Chunk<>(0);
+        private final AtomicReference<Chunk<T>> tail = new AtomicReference<>(head);
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicInteger published = new AtomicInteger();
+
+
+        void add(final T element)
+        {
+            final int index = reserved.getAndIncrement();
+            chunkFor(index).slots.set(index & CHUNK_MASK, element);
+        }
+
+
+        private Chunk<T> chunkFor(final int index)
+        {
+            final int chunkIndex = index >>> CHUNK_SHIFT;
+            final Chunk<T> last = tail.get();
+            Chunk<T> chunk = last.index <= chunkIndex ? last : head;
+            while(chunk.index < chunkIndex)
+            {
+                chunk = chunk.nextChunk();
+            }
+            if(chunk.index > last.index)
+            {
+                tail.compareAndSet(last, chunk);
+            }
+            return chunk;
+        }
+
+
+        List<T> snapshot()
+        {
+            final int size = advancePublished();
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            final AtomicReferenceArray<T>[] visible = new AtomicReferenceArray[(size + CHUNK_MASK) >>> CHUNK_SHIFT];
+            Chunk<T> chunk = head;
+            for(int i = 0; i < visible.length; i++)
+            {
+                visible[i] = chunk.slots;
+                chunk = chunk.next.get();
+            }
+            return new View<>(visible, size);
+        }
+
+
+        private int advancePublished()
+        {
+            final int start = published.get();
+            final int limit = reserved.get();
+            int size = start;
+            Chunk<T> chunk = chunkFor(Math.min(start, Math.max(limit - 1, 0)));
+            while(size < limit)
+            {
+                if(size >>> CHUNK_SHIFT != chunk.index)
+                {
+                    chunk = chunk.next.get();
+                }
+                if(chunk == null || chunk.slots.get(size & CHUNK_MASK) == null)
+                {
+                    break;
+                }
+                size++;
+            }
+            int current = start;
+            while(current < size && !published.compareAndSet(current, size))
+            {
+                current = published.get();
+            }
+            return Math.max(size, published.get());
+        }
+    }
+
+
+    private static final class Chunk<T>
+    {
+
+        final int index;
+        final AtomicReferenceArray<T> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        final AtomicReference<Chunk<T>> next = new AtomicReference<>();
+
+
+        Chunk(final int index)
+        {
+            this.index = index;
+        }
+
+
+        Chunk<T> nextChunk()
+        {
+            final Chunk<T> existing = next.get();
+            if(existing != null)
+            {
+                return existing;
+            }
+            next.compareAndSet(null, new Chunk<T>(index + 1));
+            return next.get();
+        }
+    }
+
+
+    private static final class View<T> extends AbstractList<T> implements RandomAccess
+    {
+
+        private final AtomicReferenceArray<T>[] chunks;
+        private final int size;
+
+
+        View(final AtomicReferenceArray<T>[] chunks,
+             final int size)
+        {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+
+        @Override
+        public T get(final int index)
+        {
+            if(index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+        }
+
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+}
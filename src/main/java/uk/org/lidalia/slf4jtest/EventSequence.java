@@ -0,0 +1,42 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Allocates the {@link LoggingEvent#getSequence() sequence numbers} of
+ * captured events, which order them across all threads.
+ * <p/>
+ * Numbers come from a single counter, incremented with one fetch and add, so
+ * a thread never has to retry however many others are logging. Handing each
+ * thread a block of numbers would avoid sharing the counter, but would order
+ * events by which thread took the earlier block rather than by when they
+ * were created, which is what the numbers are for.
+ */
+final class EventSequence
+{
+
+    private static final AtomicLong LAST = new AtomicLong();
+
+
+    static long next()
+    {
+        return LAST.incrementAndGet();
+    }
+
+
+    /**
+     * @return the last number handed out; every event created after this
+     *         call will have a greater one
+     */
+    static long last()
+    {
+        return LAST.get();
+    }
+
+
+    private EventSequence()
+    {
+        throw new UnsupportedOperationException("Not instantiable");
+    }
+}
@@ -0,0 +1,46 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.Collections;
+import java.util.Map;
+
+
+/**
+ * Estimates the heap each {@link LoggingEvent} added to one store retains,
+ * charging the store for an MDC snapshot once for each run of its events
+ * that share it.
+ * <p/>
+ * {@link TestMDCAdapter} hands every event a thread logs while its context is
+ * unchanged the same snapshot, so a store's events mostly come in runs
+ * sharing one. The snapshot is charged to the first event of each run, on
+ * top of its {@link LoggingEvent#estimateSize() own size}, and the rest of
+ * the run add nothing for it. The charge depends only on the store's events,
+ * never on the thread asking; a store records what each event was charged,
+ * so dropping or clearing events subtracts exactly what adding them did.
+ * Runs of several threads interleaving in one store are each charged again,
+ * so the estimate errs on the high side.
+ */
+final class EventSizer implements SizeEstimator<LoggingEvent>
+{
+
+    private volatile Map<String, String> lastMdc = Collections.emptyMap();
+
+
+    @Override
+    public long estimate(final LoggingEvent event)
+    {
+        final Map<String, String> mdc = event.getMdc();
+        if(mdc == lastMdc)
+        {
+            return event.estimateSize();
+        }
+        lastMdc = mdc;
+        return event.estimateSize() + LoggingEvent.estimateSize(mdc);
+    }
+
+
+    @Override
+    public void reset()
+    {
+        lastMdc = Collections.emptyMap();
+    }
+}
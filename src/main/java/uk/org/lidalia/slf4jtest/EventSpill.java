@@ -0,0 +1,448 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+
+/**
+ * The heap budget and {@link EventJournal} shared by all the
+ * {@link SpillingEventStore}s of a {@link TestLoggerFactory}, so that the
+ * threshold bounds the events held on the heap by the factory and all its
+ * loggers together, and each event is written to disk once however many
+ * stores hold it.
+ * <p/>
+ * Each event held on the heap by any store has a single {@link Slot}, which
+ * every store holding the event shares, and which is charged for the event
+ * once, by the spill's {@link EventSizer}. Once the events held are
+ * estimated to retain more than the threshold the oldest are journalled
+ * until half the threshold is left, so the journal is written in large
+ * batches, and their slots record where they were written instead,
+ * releasing them from every store at once. If the
+ * journal cannot be written the events stay on the heap and spilling is not
+ * tried again until another threshold's worth of events has been added:
+ * logging never fails because the disk has.
+ * <p/>
+ * All the stores sharing a spill are guarded by its lock, which is only held
+ * to pick the events to spill: they are encoded and written by the store
+ * that picked them once it has released the lock, and stay on the heap, to
+ * be read from there, until the write completes. Writes are serialised by a
+ * lock of their own, and only one batch is picked at a time.
+ * <p/>
+ * The journal only grows until the spill is cleared, when all its stores
+ * are: events a single store discards, such as those of one logger's
+ * {@link TestLogger#clearAll()}, stay in the journal, so the space they take
+ * on disk is not reclaimed until
+ * {@link TestLoggerFactory#clearAllLoggers()}.
+ */
+final class EventSpill
+{
+
+    private final long threshold;
+    private final Supplier<Path> directory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Map<LoggingEvent, Slot> slots = new IdentityHashMap<>();
+    private final Slot oldest = new Slot(null, 0L);
+    private final EventSizer sizer = new EventSizer();
+    private EventJournal journal;
+    private volatile Batch pending;
+    private boolean spilling;
+    private long estimatedSize;
+    private long retryAbove;
+    private long failedCount;
+
+
+    /**
+     * @param threshold
+     *            the estimated heap, in bytes, the events held on the heap may
+     *            retain before the oldest are spilled
+     * @param directory
+     *            supplies the directory to create the journal in, when events
+     *            are first spilled
+     */
+    EventSpill(final long threshold,
+               final Supplier<Path> directory)
+    {
+        checkArgument(threshold > 0, "spill threshold must be positive, was %s", threshold);
+        this.threshold = threshold;
+        this.directory = checkNotNull(directory);
+        this.journal = new EventJournal(directory);
+        this.retryAbove = threshold;
+        oldest.previous = oldest;
+        oldest.next = oldest;
+    }
+
+
+    ReentrantLock lock()
+    {
+        return lock;
+    }
+
+
+    /**
+     * Must be called with the {@link #lock()} held, and followed by
+     * {@link #spillPending()} once it has been released.
+     *
+     * @return the slot shared by the stores holding the event, to which the
+     *         calling store is now added as a holder; the oldest events may
+     *         be picked to be spilled
+     */
+    Slot hold(final LoggingEvent event)
+    {
+        Slot slot = slots.get(event);
+        if(slot == null)
+        {
+            slot = new Slot(event, sizer.estimate(event));
+            slots.put(event, slot);
+            slot.insertBefore(oldest);
+            estimatedSize += slot.size;
+            if(estimatedSize > retryAbove && !spilling)
+            {
+                pickOldest(slot);
+            }
+        }
+        slot.holders++;
+        return slot;
+    }
+
+
+    /**
+     * Must be called with the {@link #lock()} held, by a store that no longer
+     * holds the slot's event. An event no store holds is dropped, rather than
+     * spilled.
+     */
+    void release(final Slot slot)
+    {
+        slot.holders--;
+        if(slot.holders == 0 && slot.event != null && slot.next != null)
+        {
+            slots.remove(slot.event);
+            slot.remove();
+            estimatedSize -= slot.size;
+            slot.event = null;
+        }
+    }
+
+
+    /**
+     * Writes the events last picked to be spilled, if no other store has
+     * already, to the journal; must be called without the {@link #lock()}
+     * held, so that other stores can add events while the journal is
+     * written.
+     */
+    void spillPending()
+    {
+        if(pending == null)
+        {
+            return;
+        }
+        final Batch batch;
+        lock.lock();
+        try
+        {
+            batch = pending;
+            pending = null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        if(batch != null)
+        {
+            appendLock.lock();
+            try
+            {
+                write(batch);
+            }
+            finally
+            {
+                appendLock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Must be called with the {@link #lock()} held.
+     *
+     * @return the events journalled so far, by position
+     * @throws UncheckedIOException
+     *             if the journal could not be read
+     */
+    List<LoggingEvent> journalled()
+    {
+        try
+        {
+            return journal.view();
+        }
+        catch(final IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Forgets all events and deletes the journal, once all the stores
+     * sharing this spill are being cleared. Views previously returned by
+     * {@link #journalled()} are unaffected.
+     */
+    void clear()
+    {
+        lock.lock();
+        try
+        {
+            for(Slot slot = oldest.next; slot != oldest; slot = oldest.next)
+            {
+                slot.remove();
+            }
+            slots.clear();
+            sizer.reset();
+            estimatedSize = 0L;
+            retryAbove = threshold;
+            // a write in progress finds the journal replaced, and is ignored
+            pending = null;
+            spilling = false;
+            journal.delete();
+            journal = new EventJournal(directory);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the estimated heap retained by the events held on the heap, by
+     *         all the stores sharing this spill
+     */
+    long getEstimatedSize()
+    {
+        lock.lock();
+        try
+        {
+            return estimatedSize;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the number of times events could not be spilled, and were kept
+     *         on the heap instead
+     */
+    long getFailedCount()
+    {
+        lock.lock();
+        try
+        {
+            return failedCount;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Picks the oldest events, other than the newest, which is yet to be
+     * added to the rest of the stores that will hold it, to be spilled.
+     */
+    private void pickOldest(final Slot newest)
+    {
+        final List<Slot> picked = new ArrayList<>();
+        final List<LoggingEvent> events = new ArrayList<>();
+        long remaining = estimatedSize;
+        for(Slot slot = oldest.next; slot != newest && remaining > threshold / 2; slot = slot.next)
+        {
+            remaining -= slot.size;
+            picked.add(slot);
+            events.add(slot.event);
+        }
+        if(!picked.isEmpty())
+        {
+            pending = new Batch(journal, picked, events);
+            spilling = true;
+        }
+    }
+
+
+    /**
+     * Called with the append lock held, but not the {@link #lock()}.
+     */
+    private void write(final Batch batch)
+    {
+        EventJournal.Appended appended = null;
+        try
+        {
+            appended = batch.journal.append(batch.events);
+        }
+        catch(final IOException e)
+        {
+            // kept on the heap
+        }
+        finally
+        {
+            lock.lock();
+            try
+            {
+                complete(batch, appended);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Called with the {@link #lock()} held.
+     *
+     * @param appended
+     *            null if the batch could not be written
+     */
+    private void complete(final Batch batch,
+                          final EventJournal.Appended appended)
+    {
+        if(batch.journal != journal)
+        {
+            // cleared while the batch was written
+            return;
+        }
+        spilling = false;
+        if(appended == null)
+        {
+            failedCount++;
+            retryAbove = estimatedSize + threshold;
+            return;
+        }
+        final int firstPosition = journal.commit(appended);
+        for(int i = 0; i < batch.slots.size(); i++)
+        {
+            final Slot slot = batch.slots.get(i);
+            if(slot.next != null)
+            {
+                // still held by a store
+                slots.remove(slot.event);
+                slot.remove();
+                estimatedSize -= slot.size;
+                slot.event = null;
+            }
+            slot.position = firstPosition + i;
+        }
+        retryAbove = threshold;
+    }
+
+
+    /**
+     * The oldest events, picked to be spilled to the journal they were
+     * picked for.
+     */
+    private static final class Batch
+    {
+
+        private final EventJournal journal;
+        private final List<Slot> slots;
+        private final List<LoggingEvent> events;
+
+
+        private Batch(final EventJournal journal,
+                      final List<Slot> slots,
+                      final List<LoggingEvent> events)
+        {
+            this.journal = journal;
+            this.slots = slots;
+            this.events = events;
+        }
+    }
+
+
+    /**
+     * An event held on the heap by one or more stores, or where it was
+     * journalled once it has been spilled. Guarded by the spill's lock.
+     */
+    static final class Slot
+    {
+
+        private static final int NOT_SPILLED = -1;
+
+        private final long size;
+        private LoggingEvent event;
+        private int position = NOT_SPILLED;
+        private int holders;
+        private Slot previous;
+        private Slot next;
+
+
+        private Slot(final LoggingEvent event,
+                     final long size)
+        {
+            this.event = event;
+            this.size = size;
+        }
+
+
+        long size()
+        {
+            return size;
+        }
+
+
+        boolean isSpilled()
+        {
+            return position != NOT_SPILLED;
+        }
+
+
+        /**
+         * @return the event, unless it has been spilled
+         */
+        LoggingEvent event()
+        {
+            return event;
+        }
+
+
+        /**
+         * @return the position in the journal the event was spilled to
+         */
+        int position()
+        {
+            return position;
+        }
+
+
+        private void insertBefore(final Slot successor)
+        {
+            previous = successor.previous;
+            next = successor;
+            previous.next = this;
+            successor.previous = this;
+        }
+
+
+        private void remove()
+        {
+            previous.next = next;
+            next.previous = previous;
+            previous = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.List;
+
+
+/**
+ * Where a {@link TestLogger} or {@link TestLoggerFactory} keeps the
+ * {@link LoggingEvent}s it has captured. Implementations must be safe for use
+ * by multiple threads.
+ *
+ * @param <T>
+ *            the type of the elements in this store
+ */
+interface EventStore<T>
+{
+
+    void add(T element);
+
+
+    /**
+     * @return an immutable list of the elements currently held, in the order
+     *         in which they were added; not affected by subsequent adds or
+     *         clears
+     */
+    List<T> snapshot();
+
+
+    /**
+     * @return the number of elements this store has discarded to stay within
+     *         its bounds since it was last cleared
+     */
+    long getDroppedCount();
+
+
+    /**
+     * @return the estimated heap, in bytes, retained by the elements
+     *         currently held; maintained as elements are added and removed
+     */
+    long getEstimatedSize();
+
+
+    /**
+     * @return the estimated heap, in bytes, the elements currently held would
+     *         retain if none of them were compressed
+     */
+    default long getUncompressedSize()
+    {
+        return getEstimatedSize();
+    }
+
+
+    /**
+     * @return whether {@link #currentThreadSnapshot()} is supported, in which
+     *         case no separate store of each thread's elements need be kept
+     */
+    default boolean isIndexedByThread()
+    {
+        return false;
+    }
+
+
+    /**
+     * @return whether this store only keeps a bounded number of elements, in
+     *         which case each thread's elements are found among them rather
+     *         than kept again in a separate store, which would be bounded
+     *         too and multiply the memory held by the number of threads
+     */
+    default boolean isBounded()
+    {
+        return false;
+    }
+
+
+    /**
+     * @return an immutable list of the elements currently held that were
+     *         added by the calling thread, in the order in which they were
+     *         added
+     * @throws UnsupportedOperationException
+     *             unless {@link #isIndexedByThread()}
+     */
+    default List<T> currentThreadSnapshot()
+    {
+        throw new UnsupportedOperationException("Elements are not indexed by thread");
+    }
+
+
+    /**
+     * Discards all elements and resets the dropped count.
+     */
+    void clear();
+}
@@ -4,11 +4,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.PrintStream;
 import java.time.Instant;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.RandomAccess;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -20,6 +23,8 @@ import uk.org.lidalia.lang.Identity;
 import uk.org.lidalia.lang.RichObject;
 import uk.org.lidalia.slf4jext.Level;
 
+import com.google.common.collect.ImmutableMap;
+
 
 /**
  * Representation of a call to a logger for test assertion purposes.
@@ -437,7 +442,7 @@ public class LoggingEvent extends RichObject
                         final Object... arguments)
     {
         this(level,
-             Collections.<String, String> emptyMap(),
+             ImmutableMap.<String, String> of(),
              Optional.<Marker> empty(),
              Optional.<Throwable> empty(),
              message,
@@ -451,7 +456,7 @@ public class LoggingEvent extends RichObject
                         final Object... arguments)
     {
         this(level,
-             Collections.<String, String> emptyMap(),
+             ImmutableMap.<String, String> of(),
              Optional.<Marker> empty(),
              Optional.ofNullable(throwable),
              message,
@@ -465,7 +470,7 @@ public class LoggingEvent extends RichObject
                         final Object... arguments)
     {
         this(level,
-             Collections.<String, String> emptyMap(),
+             ImmutableMap.<String, String> of(),
              Optional.ofNullable(marker),
              Optional.<Throwable> empty(),
              message,
@@ -480,7 +485,7 @@ public class LoggingEvent extends RichObject
                         final Object... arguments)
     {
         this(level,
-             Collections.<String, String> emptyMap(),
+             ImmutableMap.<String, String> of(),
              Optional.ofNullable(marker),
              Optional.ofNullable(throwable),
              message,
@@ -556,19 +561,150 @@ public class LoggingEvent extends RichObject
                  final Optional<Throwable> throwable,
                  final String message,
                  final Object... arguments)
+    {
+        this(creatingLogger,
+             level,
+             mdc,
+             marker,
+             message,
+             new Arguments(message, arguments, checkNotNull(throwable)));
+    }
+
+
+    /**
+     * Creates a logging event whose throwable, if any, is the last element of
+     * arguments. Working out whether it is one is deferred until the event is
+     * first inspected, and does not format the message.
+     */
+    LoggingEvent(final Optional<TestLogger> creatingLogger,
+                 final Level level,
+                 final Map<String, String> mdc,
+                 final Optional<Marker> marker,
+                 final String format,
+                 final Object[] arguments)
+    {
+        this(creatingLogger,
+             level,
+             mdc,
+             marker,
+             format,
+             new Arguments(format, arguments, null));
+    }
+
+
+    /**
+     * Recreates a logging event captured earlier, such as one decoded by
+     * {@link OffHeapEventStore}, with its original timestamp and thread.
+     */
+    LoggingEvent(final Optional<TestLogger> creatingLogger,
+                 final Level level,
+                 final Map<String, String> mdc,
+                 final Optional<Marker> marker,
+                 final Optional<Throwable> throwable,
+                 final String message,
+                 final Object[] arguments,
+                 final EventClock clock,
+                 final long tick,
+                 final ThreadMetadata thread,
+                 final long sequence)
+    {
+        this(creatingLogger,
+             level,
+             mdc,
+             marker,
+             message,
+             new Arguments(message, arguments, checkNotNull(throwable)),
+             clock,
+             tick,
+             thread,
+             sequence);
+    }
+
+
+    private LoggingEvent(final Optional<TestLogger> creatingLogger,
+                         final Level level,
+                         final Map<String, String> mdc,
+                         final Optional<Marker> marker,
+                         final String message,
+                         final Arguments arguments)
+    {
+        this(creatingLogger,
+             level,
+             mdc,
+             marker,
+             message,
+             arguments,
+             clockOf(creatingLogger),
+             ThreadMetadata.current(),
+             creatingLogger.isPresent() ? EventSequence.next() : 0L);
+    }
+
+
+    private LoggingEvent(final Optional<TestLogger> creatingLogger,
+                         final Level level,
+                         final Map<String, String> mdc,
+                         final Optional<Marker> marker,
+                         final String message,
+                         final Arguments arguments,
+                         final EventClock clock,
+                         final ThreadMetadata thread,
+                         final long sequence)
+    {
+        this(creatingLogger, level, mdc, marker, message, arguments, clock, clock.tick(), thread, sequence);
+    }
+
+
+    private LoggingEvent(final Optional<TestLogger> creatingLogger,
+                         final Level level,
+                         final Map<String, String> mdc,
+                         final Optional<Marker> marker,
+                         final String message,
+                         final Arguments arguments,
+                         final EventClock clock,
+                         final long tick,
+                         final ThreadMetadata thread,
+                         final long sequence)
     {
         super();
-        this.creatingLogger = creatingLogger;
+        this.creatingLogger = checkNotNull(creatingLogger);
         this.level = checkNotNull(level);
-        this.mdc = Collections
-                .unmodifiableMap(new HashMap<String, String>(mdc));
+        this.mdc = immutableCopyOf(mdc);
         this.marker = checkNotNull(marker);
-        this.throwable = checkNotNull(throwable);
         this.message = checkNotNull(message);
-        this.arguments = Collections.unmodifiableList(Stream.of(arguments)
-                .map(TO_NON_NULL_VALUE).collect(Collectors.toList()));
+        this.arguments = arguments;
+        this.throwable = new DeferredThrowable(arguments);
+        this.clock = checkNotNull(clock);
+        this.tick = tick;
+        this.thread = checkNotNull(thread);
+        this.sequence = sequence;
+    }
+
+
+    private static EventClock clockOf(final Optional<TestLogger> creatingLogger)
+    {
+        return creatingLogger.isPresent() ? creatingLogger.get().getClock() : NOT_CAPTURED;
+    }
+
+    /**
+     * Shares the MDC snapshots handed out by {@link TestMDCAdapter} (and any
+     * other {@link ImmutableMap}) rather than copying them for every event.
+     */
+    private static Map<String, String> immutableCopyOf(final Map<String, String> mdc)
+    {
+        if(mdc instanceof ImmutableMap)
+        {
+            return mdc;
+        }
+        return Collections.unmodifiableMap(new HashMap<String, String>(mdc));
     }
 
+    /**
+     * Expected events, built by the static factory methods and public
+     * constructors, are never compared on their timestamp, so do not pay to
+     * capture one.
+     */
+    private static final EventClock NOT_CAPTURED = EventClocks.fixed(Instant.EPOCH);
+
     private static final Function<Object, Object> TO_NON_NULL_VALUE = (final Object input) -> {
         return Optional.ofNullable(input).orElse(Optional.<Object> empty());
     };
@@ -580,15 +716,19 @@ public class LoggingEvent extends RichObject
     @Identity
     private final Optional<Marker> marker;
     @Identity
-    private final Optional<Throwable> throwable;
+    private final DeferredThrowable throwable;
     @Identity
     private final String message;
     @Identity
-    private final List<Object> arguments;
+    private final Arguments arguments;
 
     private final Optional<TestLogger> creatingLogger;
-    private final Instant timestamp = Instant.now();
-    private final String threadName = Thread.currentThread().getName();
+    private final EventClock clock;
+    private final long tick;
+    private final ThreadMetadata thread;
+    private final long sequence;
+    private volatile String formattedMessage;
+    private int estimatedSize;
 
 
     public Level getLevel()
@@ -623,7 +763,7 @@ public class LoggingEvent extends RichObject
 
     public Optional<Throwable> getThrowable()
     {
-        return throwable;
+        return arguments.resolve().throwable;
     }
 
 
@@ -639,11 +779,37 @@ public class LoggingEvent extends RichObject
 
 
     /**
-     * @return the time at which this logging event was created
+     * @return the time at which this logging event was created, according to
+     *         the {@link TestLoggerFactory#getClock() clock} of the factory of
+     *         the logger that created it, or {@link Instant#EPOCH} if this
+     *         logging event was not created by a logger
      */
     public Instant getTimestamp()
     {
-        return timestamp;
+        return clock.toInstant(tick);
+    }
+
+
+    /**
+     * @return the position of this logging event in the order in which all
+     *         logging events were created by loggers, on any thread - unlike
+     *         {@link #getTimestamp()}, never the same for two events - or 0
+     *         if it was not created by a logger
+     * @see LoggingEvents
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+
+    /**
+     * @return the {@link Thread#getId() id} of the thread that created this
+     *         logging event
+     */
+    public long getThreadId()
+    {
+        return thread.getId();
     }
 
 
@@ -652,7 +818,31 @@ public class LoggingEvent extends RichObject
      */
     public String getThreadName()
     {
-        return threadName;
+        return thread.getName();
+    }
+
+
+    Optional<TestLogger> getCreatingLoggerIfPresent()
+    {
+        return creatingLogger;
+    }
+
+
+    EventClock getClock()
+    {
+        return clock;
+    }
+
+
+    long getTick()
+    {
+        return tick;
+    }
+
+
+    ThreadMetadata getThread()
+    {
+        return thread;
     }
 
 
@@ -661,7 +851,7 @@ public class LoggingEvent extends RichObject
         final PrintStream output = printStreamForLevel();
         output.println(formatLogStatement());
 
-        throwable.map(printThrowableTo(output));
+        getThrowable().map(printThrowableTo(output));
         // throwable.transform(printThrowableTo(output));
     }
 
@@ -692,13 +882,107 @@ public class LoggingEvent extends RichObject
     };
 
 
-    private String getFormattedMessage()
+    /**
+     * @return the message with its arguments substituted in, as it would be
+     *         printed; computed the first time it is asked for
+     */
+    public String getFormattedMessage()
+    {
+        String result = formattedMessage;
+        if(result == null)
+        {
+            synchronized(arguments)
+            {
+                result = formattedMessage;
+                if(result == null)
+                {
+                    result = MessageFormatter.arrayFormat(getMessage(),
+                                                          getArguments().toArray())
+                            .getMessage();
+                    formattedMessage = result;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return an estimate, in bytes, of the heap this event retains: the event
+     *         itself, its argument references, any string arguments and its
+     *         throwable; computed once. The message format is not counted, as
+     *         it is almost always a literal shared by many events, nor is the
+     *         thread, which is shared by all the events it logged. Nor is the
+     *         MDC map, which is usually shared too, and which each store
+     *         charges for itself through an {@link EventSizer}.
+     */
+    long estimateSize()
+    {
+        int size = estimatedSize;
+        if(size == 0)
+        {
+            final long estimate = ESTIMATED_SHALLOW_SIZE + arguments.estimateSize();
+            size = (int) Math.min(estimate, Integer.MAX_VALUE);
+            estimatedSize = size;
+        }
+        return size;
+    }
+
+
+    /**
+     * @return the part of {@link #estimateSize()} retained by the throwables
+     *         of this event, whether its throwable or among its arguments,
+     *         which an {@link EventCodec} that keeps arguments holds by
+     *         reference rather than encodes
+     */
+    long estimateReferencedSize()
+    {
+        return arguments.estimateReferencedSize();
+    }
+
+
+    static long estimateSize(final Map<String, String> map)
+    {
+        if(map.isEmpty())
+        {
+            return 0L;
+        }
+        long size = ESTIMATED_MAP_SIZE;
+        for(final Map.Entry<String, String> entry : map.entrySet())
+        {
+            size += ESTIMATED_MAP_ENTRY_SIZE + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+        }
+        return size;
+    }
+
+
+    private static long estimateSize(final Object object)
     {
-        return MessageFormatter.arrayFormat(getMessage(),
-                                            getArguments().toArray())
-                .getMessage();
+        if(object instanceof String)
+        {
+            return ESTIMATED_STRING_SIZE + ((String) object).length();
+        }
+        if(object instanceof Throwable)
+        {
+            return ESTIMATED_THROWABLE_SIZE;
+        }
+        return 0L;
     }
 
+    /*
+     * Sizes on a 64 bit JVM with compressed references. Strings are assumed
+     * to be Latin-1, so one byte per character. A throwable's size depends
+     * mostly on the depth of its stack trace, which cannot be found without
+     * the cost of filling it in, so a typical size is assumed.
+     */
+    private static final long REFERENCE_SIZE = 4L;
+    private static final long ESTIMATED_SHALLOW_SIZE = 136L;
+    private static final long ESTIMATED_STRING_SIZE = 40L;
+    private static final long ESTIMATED_ARRAY_SIZE = 16L;
+    private static final long ESTIMATED_MAP_SIZE = 64L;
+    private static final long ESTIMATED_MAP_ENTRY_SIZE = 32L;
+    private static final long ESTIMATED_THROWABLE_SIZE = 1024L;
+
 
     private PrintStream printStreamForLevel()
     {
@@ -711,4 +995,182 @@ public class LoggingEvent extends RichObject
                 return System.out;
         }
     }
+
+
+    /**
+     * The arguments of a logging event, kept as the raw array passed to the
+     * logger until they are first inspected. At that point the trailing
+     * throwable, if it is to be extracted, is split off and nulls are replaced
+     * by {@link Optional#empty()}; the result is computed once and shared by
+     * all threads.
+     */
+    private static final class Arguments extends AbstractList<Object> implements RandomAccess
+    {
+
+        private final String format;
+        private final Object[] raw;
+        private final Optional<Throwable> explicitThrowable;
+        private volatile Resolved resolved;
+
+
+        Arguments(final String format,
+                  final Object[] raw,
+                  final Optional<Throwable> explicitThrowable)
+        {
+            super();
+            this.format = format;
+            this.raw = checkNotNull(raw).clone();
+            this.explicitThrowable = explicitThrowable;
+        }
+
+
+        Resolved resolve()
+        {
+            Resolved result = resolved;
+            if(result == null)
+            {
+                synchronized(this)
+                {
+                    result = resolved;
+                    if(result == null)
+                    {
+                        result = doResolve();
+                        resolved = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+
+        /**
+         * Splits off a trailing throwable as {@link MessageFormatter} does -
+         * the last argument is the throwable if it is one - without formatting
+         * the message, so that {@link LoggingEvent#equals(Object)},
+         * {@link LoggingEvent#hashCode()} and {@link LoggingEvent#getThrowable()} never
+         * format it.
+         */
+        private Resolved doResolve()
+        {
+            if(explicitThrowable != null)
+            {
+                return new Resolved(explicitThrowable, raw);
+            }
+            if(raw.length > 0 && raw[raw.length - 1] instanceof Throwable)
+            {
+                return new Resolved(Optional.of((Throwable) raw[raw.length - 1]),
+                                    Arrays.copyOf(raw, raw.length - 1));
+            }
+            return new Resolved(Optional.<Throwable> empty(), raw);
+        }
+
+
+        long estimateSize()
+        {
+            long size = ESTIMATED_ARRAY_SIZE + REFERENCE_SIZE * raw.length;
+            for(final Object argument : raw)
+            {
+                size += LoggingEvent.estimateSize(argument);
+            }
+            if(explicitThrowable != null && explicitThrowable.isPresent())
+            {
+                size += ESTIMATED_THROWABLE_SIZE;
+            }
+            return size;
+        }
+
+
+        long estimateReferencedSize()
+        {
+            long size = 0L;
+            for(final Object argument : raw)
+            {
+                if(argument instanceof Throwable)
+                {
+                    size += ESTIMATED_THROWABLE_SIZE;
+                }
+            }
+            if(explicitThrowable != null && explicitThrowable.isPresent())
+            {
+                size += ESTIMATED_THROWABLE_SIZE;
+            }
+            return size;
+        }
+
+
+        @Override
+        public Object get(final int index)
+        {
+            return resolve().arguments.get(index);
+        }
+
+
+        @Override
+        public int size()
+        {
+            return resolve().arguments.size();
+        }
+    }
+
+
+    private static final class Resolved
+    {
+
+        private final Optional<Throwable> throwable;
+        private final List<Object> arguments;
+
+
+        Resolved(final Optional<Throwable> throwable,
+                 final Object[] arguments)
+        {
+            this.throwable = throwable;
+            this.arguments = Stream.of(arguments == null ? new Object[0] : arguments)
+                    .map(TO_NON_NULL_VALUE).collect(Collectors.toList());
+        }
+    }
+
+
+    /**
+     * Stands in for the throwable of a logging event in {@link #equals(Object)},
+     * {@link #hashCode()} and {@link #toString()} until it has been resolved.
+     */
+    private static final class DeferredThrowable
+    {
+
+        private final Arguments arguments;
+
+
+        DeferredThrowable(final Arguments arguments)
+        {
+            this.arguments = arguments;
+        }
+
+
+        private Optional<Throwable> get()
+        {
+            return arguments.resolve().throwable;
+        }
+
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            return other instanceof DeferredThrowable
+                   && get().equals(((DeferredThrowable) other).get());
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return get().hashCode();
+        }
+
+
+        @Override
+        public String toString()
+        {
+            return get().toString();
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+
+/**
+ * Helpers for working with lists of {@link LoggingEvent}s in
+ * {@link LoggingEvent#getSequence() sequence} order, such as those returned
+ * by {@link TestLogger#getLoggingEvents()}, {@link TestLogger#getAllLoggingEvents()}
+ * and their {@link TestLoggerFactory} equivalents.
+ */
+public final class LoggingEvents
+{
+
+    private static final Comparator<LoggingEvent> BY_SEQUENCE = (first, second) -> Long.compare(first.getSequence(),
+                                                                                                 second.getSequence());
+
+
+    /**
+     * @return a {@link Comparator} ordering logging events by
+     *         {@link LoggingEvent#getSequence()}, which is the order in which
+     *         they were created
+     */
+    public static Comparator<LoggingEvent> bySequence()
+    {
+        return BY_SEQUENCE;
+    }
+
+
+    /**
+     * Merges lists of logging events, each in sequence order, into one in
+     * sequence order, without sorting: each step only compares the next
+     * event of each list. An event in more than one list appears once for
+     * each.
+     *
+     * @param lists
+     *            the lists to merge, each in sequence order
+     * @return an immutable list of all the events in the lists, in sequence
+     *         order
+     */
+    public static List<LoggingEvent> merge(final Iterable<? extends List<LoggingEvent>> lists)
+    {
+        return ImmutableList.copyOf(Iterables.mergeSorted(checkNotNull(lists), BY_SEQUENCE));
+    }
+
+
+    /**
+     * @see #merge(Iterable)
+     */
+    @SafeVarargs
+    public static List<LoggingEvent> merge(final List<LoggingEvent>... lists)
+    {
+        final ImmutableList.Builder<List<LoggingEvent>> builder = ImmutableList.builder();
+        for(final List<LoggingEvent> list : lists)
+        {
+            builder.add(list);
+        }
+        return merge(builder.build());
+    }
+
+
+    /**
+     * Finds the events logged since a cursor, by binary search. Typically
+     * the cursor is the sequence number of the last event seen, so that a
+     * test can assert on only the events logged since.
+     *
+     * @param events
+     *            logging events in sequence order
+     * @param sequence
+     *            the cursor
+     * @return a view of the events whose sequence number is greater than the
+     *         cursor
+     */
+    public static List<LoggingEvent> after(final List<LoggingEvent> events,
+                                           final long sequence)
+    {
+        int low = 0;
+        int high = events.size();
+        while(low < high)
+        {
+            final int middle = (low + high) >>> 1;
+            if(events.get(middle).getSequence() <= sequence)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        return Collections.unmodifiableList(events.subList(low, events.size()));
+    }
+
+
+    /**
+     * @param events
+     *            logging events in sequence order
+     * @return the sequence number of the last event, for use as a cursor with
+     *         {@link #after(List, long)}, or 0 if there are none
+     */
+    public static long lastSequence(final List<LoggingEvent> events)
+    {
+        return events.isEmpty() ? 0L : events.get(events.size() - 1).getSequence();
+    }
+
+
+    private LoggingEvents()
+    {
+        throw new UnsupportedOperationException("Not instantiable");
+    }
+}
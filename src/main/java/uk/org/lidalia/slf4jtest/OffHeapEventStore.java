@@ -0,0 +1,223 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Store that keeps {@link LoggingEvent}s encoded, by an {@link EventCodec},
+ * in direct {@link ByteBuffer}s outside the garbage collected heap, so that
+ * capturing tens of millions of events does not lead to long collections.
+ * <p/>
+ * Events are encoded on the logging thread, so the lock writers share is
+ * only held to copy the encoded bytes into the current segment and record
+ * where they are. {@link #snapshot()} returns a view that decodes each event
+ * when it is asked for, so the decoded events' arguments are strings, and
+ * each call to {@link List#get(int)} returns a new, equal, event. Segments
+ * are never written to again once they are full, nor reused once cleared, so
+ * views are unaffected by later adds and clears. Direct memory is released
+ * when the segments a clear discards are garbage collected; the amount
+ * available is limited by -XX:MaxDirectMemorySize.
+ * <p/>
+ * Segments start small and double in size up to {@link #SEGMENT_SIZE}, as
+ * does each segment of the index, which is copied as it grows, so a store
+ * that captures a handful of events only takes a few kilobytes. The store is
+ * {@link #isIndexedByThread() indexed by thread}: a thread's events are found
+ * by reading the thread each event was encoded with, without decoding the
+ * rest, so no store of each thread's own, encoding every event again, need
+ * be kept.
+ */
+final class OffHeapEventStore implements EventStore<LoggingEvent>
+{
+
+    static final int SEGMENT_SIZE = 1 << 20;
+    static final int FIRST_SEGMENT_SIZE = 1 << 12;
+    private static final int FIRST_INDEX_SEGMENT_ENTRIES = 1 << 6;
+    private static final int INDEX_SEGMENT_SHIFT = 16;
+    private static final int INDEX_SEGMENT_ENTRIES = 1 << INDEX_SEGMENT_SHIFT;
+    private static final int INDEX_SEGMENT_MASK = INDEX_SEGMENT_ENTRIES - 1;
+    private static final int INDEX_ENTRY_SIZE = Long.BYTES;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile EventCodec codec = new EventCodec();
+    private List<ByteBuffer> segments = new ArrayList<>();
+    private List<ByteBuffer> indexSegments = new ArrayList<>();
+    private int size;
+    private volatile long estimatedSize;
+
+
+    @Override
+    public void add(final LoggingEvent element)
+    {
+        checkNotNull(element);
+        while(true)
+        {
+            final EventCodec encodedWith = codec;
+            final ByteBuffer encoded = encodedWith.encode(element);
+            lock.lock();
+            try
+            {
+                // a clear while encoding invalidates the ids; encode again
+                if(encodedWith == codec)
+                {
+                    append(encoded);
+                    return;
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    /**
+     * @return an immutable view of the events currently held, which decodes
+     *         each event when it is asked for
+     */
+    @Override
+    public List<LoggingEvent> snapshot()
+    {
+        lock.lock();
+        try
+        {
+            return EventCodec.view(segments.toArray(new ByteBuffer[segments.size()]),
+                                   indexSegments.toArray(new ByteBuffer[indexSegments.size()]),
+                                   INDEX_SEGMENT_SHIFT,
+                                   codec.dictionary(),
+                                   size);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public boolean isIndexedByThread()
+    {
+        return true;
+    }
+
+
+    /**
+     * @return an immutable view of the events currently held that were added
+     *         by the calling thread, which decodes each event when it is
+     *         asked for
+     */
+    @Override
+    public List<LoggingEvent> currentThreadSnapshot()
+    {
+        final ByteBuffer[] regions;
+        final ByteBuffer[] index;
+        final Object[] dictionary;
+        final int held;
+        lock.lock();
+        try
+        {
+            regions = segments.toArray(new ByteBuffer[segments.size()]);
+            index = indexSegments.toArray(new ByteBuffer[indexSegments.size()]);
+            dictionary = codec.dictionary();
+            held = size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return EventCodec.viewOfThread(regions, index, INDEX_SEGMENT_SHIFT, dictionary, held,
+                                       Thread.currentThread().getId());
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        return 0L;
+    }
+
+
+    /**
+     * @return the direct memory, in bytes, the events currently held and
+     *         their index take up, rather than the capacity allocated for
+     *         them, which is at most twice as much plus a segment; the heap
+     *         retained by the codec's dictionary, such as any throwables, is
+     *         not counted
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        return estimatedSize;
+    }
+
+
+    /**
+     * Discards all events. Views previously returned by {@link #snapshot()}
+     * are unaffected.
+     */
+    @Override
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            codec = new EventCodec();
+            segments = new ArrayList<>();
+            indexSegments = new ArrayList<>();
+            size = 0;
+            estimatedSize = 0L;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    private void append(final ByteBuffer encoded)
+    {
+        final int length = encoded.remaining();
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if(segment == null || segment.remaining() < length)
+        {
+            final int nextSize = segment == null ? FIRST_SEGMENT_SIZE : Math.min(SEGMENT_SIZE, segment.capacity() * 2);
+            segment = ByteBuffer.allocateDirect(Math.max(nextSize, length));
+            segments.add(segment);
+        }
+        final long location = EventCodec.location(segments.size() - 1, segment.position());
+        segment.put(encoded);
+        indexSegmentFor(size).putLong((size & INDEX_SEGMENT_MASK) * INDEX_ENTRY_SIZE, location);
+        size++;
+        estimatedSize += length + INDEX_ENTRY_SIZE;
+    }
+
+
+    /**
+     * @return the index segment with room for the entry, which is added, or
+     *         replaced by a copy twice the size, if it is full
+     */
+    private ByteBuffer indexSegmentFor(final int entry)
+    {
+        final int segment = entry >>> INDEX_SEGMENT_SHIFT;
+        if(segment == indexSegments.size())
+        {
+            indexSegments.add(ByteBuffer.allocateDirect(FIRST_INDEX_SEGMENT_ENTRIES * INDEX_ENTRY_SIZE));
+        }
+        final ByteBuffer indexSegment = indexSegments.get(segment);
+        if((entry & INDEX_SEGMENT_MASK) * INDEX_ENTRY_SIZE < indexSegment.capacity())
+        {
+            return indexSegment;
+        }
+        // views still hold the full segment, so it is copied rather than reused
+        final ByteBuffer grown = ByteBuffer.allocateDirect(indexSegment.capacity() * 2);
+        grown.put(indexSegment.duplicate());
+        grown.clear();
+        indexSegments.set(segment, grown);
+        return grown;
+    }
+}
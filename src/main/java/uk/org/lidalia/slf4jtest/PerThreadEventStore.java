@@ -0,0 +1,392 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Store of the {@link LoggingEvent}s from all threads in which each thread
+ * appends to a buffer of its own, so logging threads never contend with each
+ * other.
+ * <p/>
+ * A buffer is only written by its thread, which publishes each event with an
+ * ordered store of the buffer's size; it is registered with the store the
+ * first time the thread adds an event, or after a {@link #clear()}. Each
+ * thread's events are in {@link LoggingEvent#getSequence() sequence} order,
+ * so {@link #snapshot()} {@link LoggingEvents#merge(Iterable) merges} the
+ * buffers by sequence number to give the events in the order they were
+ * created. Readers pay for the merge, writers do not; the last merge is kept
+ * and returned again until more events are added. Buffers are also indexed
+ * by thread, so {@link #currentThreadSnapshot()} only reads those of the
+ * calling thread.
+ * <p/>
+ * Each buffer publishes its events independently, so a snapshot taken while
+ * other threads are logging is not a consistent prefix of the events by
+ * sequence: it holds every event of each thread up to some point in that
+ * thread's logging, and every event whose logging call completed before the
+ * snapshot was taken, but may hold an event of one thread without an event
+ * with a lower sequence that another thread is still adding. The missing
+ * event appears in later snapshots, in its place. Only the calling thread's
+ * own events are sure to be a prefix. Merging only up to the lowest sequence
+ * every thread had published would hold back all events behind a thread
+ * that has stopped logging, so it is not done.
+ * <p/>
+ * A buffer can be shared with a second store by
+ * {@link #add(LoggingEvent, PerThreadEventStore)}, so that an event is
+ * written once however many stores hold it; this is how a logger and the
+ * factory share their events. The buffer belongs to both stores until
+ * either is cleared, after which the thread starts a new one.
+ * <p/>
+ * Each buffer's chunks double in size, starting small, so that a thread
+ * that only logs a few events - one of very many short lived threads, say -
+ * costs little more than its events. Registering a buffer does not copy the
+ * others.
+ */
+final class PerThreadEventStore implements EventStore<LoggingEvent>
+{
+
+    private static final int FIRST_CHUNK_SHIFT = 4;
+    private static final int FIRST_CHUNK_SIZE = 1 << FIRST_CHUNK_SHIFT;
+
+    private final java.lang.ThreadLocal<WeakReference<ThreadIndex>> threads = new java.lang.ThreadLocal<>();
+    private volatile Generation generation = new Generation();
+    private volatile Merged lastMerged = Merged.NONE;
+
+
+    @Override
+    public void add(final LoggingEvent element)
+    {
+        checkNotNull(element);
+        final ThreadIndex index = indexForThisThread();
+        ThreadBuffer buffer = index.writing;
+        if(buffer == null || buffer.shared != null)
+        {
+            buffer = new ThreadBuffer(index.generation, null);
+            index.register(buffer);
+            index.writing = buffer;
+        }
+        buffer.add(element);
+    }
+
+
+    /**
+     * Adds an event to this store and another, writing it once to a buffer
+     * both hold.
+     *
+     * @param sharedWith
+     *            the other store
+     */
+    void add(final LoggingEvent element,
+             final PerThreadEventStore sharedWith)
+    {
+        checkNotNull(element);
+        final ThreadIndex index = indexForThisThread();
+        final ThreadIndex sharedIndex = sharedWith.indexForThisThread();
+        ThreadBuffer buffer = index.writing;
+        if(buffer == null || buffer.shared != sharedIndex.generation)
+        {
+            buffer = new ThreadBuffer(index.generation, sharedIndex.generation);
+            index.register(buffer);
+            sharedIndex.register(buffer);
+            index.writing = buffer;
+        }
+        buffer.add(element);
+    }
+
+
+    /**
+     * @return an immutable list of the events added so far by all threads,
+     *         in sequence order
+     */
+    @Override
+    public List<LoggingEvent> snapshot()
+    {
+        final Generation current = generation;
+        final List<List<LoggingEvent>> buffers = new ArrayList<>();
+        int size = 0;
+        for(final ThreadIndex index : current.threads)
+        {
+            size += index.snapshots(buffers);
+        }
+        final Merged last = lastMerged;
+        if(last.generation == current && last.events.size() == size)
+        {
+            // buffers only grow, so the same total means the same events
+            return last.events;
+        }
+        final List<LoggingEvent> merged = merge(buffers);
+        lastMerged = new Merged(current, merged);
+        return merged;
+    }
+
+
+    @Override
+    public boolean isIndexedByThread()
+    {
+        return true;
+    }
+
+
+    /**
+     * @return an immutable list of the events added so far by the calling
+     *         thread, in sequence order, read from its own buffers alone
+     */
+    @Override
+    public List<LoggingEvent> currentThreadSnapshot()
+    {
+        final WeakReference<ThreadIndex> reference = threads.get();
+        final ThreadIndex index = reference == null ? null : reference.get();
+        if(index == null || index.generation != generation)
+        {
+            return Collections.emptyList();
+        }
+        final List<List<LoggingEvent>> buffers = new ArrayList<>();
+        index.snapshots(buffers);
+        return merge(buffers);
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        return 0L;
+    }
+
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return generation.estimatedSize.sum();
+    }
+
+
+    /**
+     * Discards all events. Each thread starts a new buffer the next time it
+     * adds an event; views previously returned by {@link #snapshot()} are
+     * unaffected.
+     */
+    @Override
+    public void clear()
+    {
+        generation = new Generation();
+        lastMerged = Merged.NONE;
+    }
+
+
+    private ThreadIndex indexForThisThread()
+    {
+        final WeakReference<ThreadIndex> reference = threads.get();
+        final ThreadIndex existing = reference == null ? null : reference.get();
+        final Generation current = generation;
+        if(existing != null && existing.generation == current)
+        {
+            return existing;
+        }
+        final ThreadIndex created = new ThreadIndex(current);
+        current.threads.add(created);
+        // the generation keeps the index reachable; once cleared, it is not
+        // kept by the thread
+        threads.set(new WeakReference<>(created));
+        return created;
+    }
+
+
+    private static List<LoggingEvent> merge(final List<List<LoggingEvent>> buffers)
+    {
+        if(buffers.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        return buffers.size() == 1 ? buffers.get(0) : LoggingEvents.merge(buffers);
+    }
+
+
+    private static int chunkOf(final int index)
+    {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(index + FIRST_CHUNK_SIZE) - FIRST_CHUNK_SHIFT;
+    }
+
+
+    private static int offsetOf(final int index)
+    {
+        final int position = index + FIRST_CHUNK_SIZE;
+        return position ^ Integer.highestOneBit(position);
+    }
+
+
+    private static final class Generation
+    {
+        private final Queue<ThreadIndex> threads = new ConcurrentLinkedQueue<>();
+        private final LongAdder estimatedSize = new LongAdder();
+    }
+
+
+    /**
+     * The buffers one thread has registered with one generation; only
+     * changed by that thread.
+     */
+    private static final class ThreadIndex
+    {
+
+        private static final ThreadBuffer[] NO_BUFFERS = new ThreadBuffer[0];
+
+        private final Generation generation;
+        private volatile ThreadBuffer[] buffers = NO_BUFFERS;
+        private ThreadBuffer writing;
+
+
+        ThreadIndex(final Generation generation)
+        {
+            this.generation = generation;
+        }
+
+
+        void register(final ThreadBuffer buffer)
+        {
+            final ThreadBuffer[] registered = Arrays.copyOf(buffers, buffers.length + 1);
+            registered[registered.length - 1] = buffer;
+            buffers = registered;
+        }
+
+
+        /**
+         * Adds a view of each non empty buffer to the list.
+         *
+         * @return the number of events in the views added
+         */
+        int snapshots(final List<List<LoggingEvent>> views)
+        {
+            int size = 0;
+            for(final ThreadBuffer buffer : buffers)
+            {
+                final List<LoggingEvent> events = buffer.snapshot();
+                if(!events.isEmpty())
+                {
+                    views.add(events);
+                    size += events.size();
+                }
+            }
+            return size;
+        }
+    }
+
+
+    /**
+     * Chunked append only buffer written by a single thread; each chunk is
+     * twice the size of the one before.
+     */
+    private static final class ThreadBuffer
+    {
+
+        private final Generation generation;
+        private final Generation shared;
+        // each buffer's events are those of one thread, with no others
+        // interleaved, and a buffer is never reused once its stores clear
+        private final EventSizer sizer = new EventSizer();
+        private volatile LoggingEvent[][] chunks = new LoggingEvent[4][];
+        private final AtomicInteger published = new AtomicInteger();
+
+
+        ThreadBuffer(final Generation generation,
+                     final Generation shared)
+        {
+            this.generation = generation;
+            this.shared = shared;
+        }
+
+
+        void add(final LoggingEvent event)
+        {
+            final int index = published.get();
+            final int chunk = chunkOf(index);
+            LoggingEvent[][] current = chunks;
+            if(chunk == current.length)
+            {
+                current = Arrays.copyOf(current, current.length * 2);
+                chunks = current;
+            }
+            if(current[chunk] == null)
+            {
+                current[chunk] = new LoggingEvent[FIRST_CHUNK_SIZE << chunk];
+            }
+            current[chunk][offsetOf(index)] = event;
+            final long size = sizer.estimate(event);
+            generation.estimatedSize.add(size);
+            if(shared != null)
+            {
+                shared.estimatedSize.add(size);
+            }
+            published.lazySet(index + 1);
+        }
+
+
+        List<LoggingEvent> snapshot()
+        {
+            final int size = published.get();
+            return new View(chunks, size);
+        }
+    }
+
+
+    private static final class View extends AbstractList<LoggingEvent> implements RandomAccess
+    {
+
+        private final LoggingEvent[][] chunks;
+        private final int size;
+
+
+        View(final LoggingEvent[][] chunks,
+             final int size)
+        {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+
+        @Override
+        public LoggingEvent get(final int index)
+        {
+            if(index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return chunks[chunkOf(index)][offsetOf(index)];
+        }
+
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+
+
+    private static final class Merged
+    {
+
+        static final Merged NONE = new Merged(null, Collections.<LoggingEvent> emptyList());
+
+        private final Generation generation;
+        private final List<LoggingEvent> events;
+
+
+        Merged(final Generation generation,
+               final List<LoggingEvent> events)
+        {
+            this.generation = generation;
+            this.events = events;
+        }
+    }
+}
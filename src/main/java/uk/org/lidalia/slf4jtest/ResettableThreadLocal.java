@@ -0,0 +1,181 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Supplier;
+
+
+/**
+ * A thread local value that does not permit null and whose values for ALL
+ * {@link Thread}s can be reset from any {@link Thread}, in the manner of
+ * {@link uk.org.lidalia.lang.ThreadLocal}.
+ * <p/>
+ * Unlike {@link uk.org.lidalia.lang.ThreadLocal}, which looks values up in a
+ * {@link java.util.concurrent.ConcurrentHashMap} keyed by {@link Thread},
+ * values are held by a {@link java.lang.ThreadLocal}, so {@link #get()} only
+ * touches the calling thread's own map. In order to support {@link #reset()}
+ * each thread's value is kept in a holder which is registered, weakly, the
+ * first time the thread uses this instance; the registry does not keep the
+ * holders of threads that have died reachable. Once a dead thread's holder
+ * has been collected its registration is removed the next time any thread
+ * registers or sets a value, and counted as
+ * {@link #getReclaimedCount() reclaimed}.
+ *
+ * @param <T>
+ *            the type of the thread local variable
+ */
+final class ResettableThreadLocal<T>
+{
+
+    private final Supplier<T> initialValueCreator;
+    private final java.lang.ThreadLocal<Holder<T>> holders = java.lang.ThreadLocal.withInitial(() -> register());
+    private final Set<HolderReference<T>> registry = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<Holder<T>> deadHolders = new ReferenceQueue<>();
+    private final LongAdder reclaimed = new LongAdder();
+
+
+    /**
+     * @param initialValue
+     *            the value this thread local will initially have for all
+     *            {@link Thread}s; this should not be mutable, as it will be
+     *            shared between all {@link Thread}s
+     */
+    ResettableThreadLocal(final T initialValue)
+    {
+        this(() -> initialValue);
+        checkNotNull(initialValue);
+    }
+
+
+    /**
+     * @param initialValueCreator
+     *            called on a per {@link Thread} basis in order to establish
+     *            the initial value for that {@link Thread}
+     */
+    ResettableThreadLocal(final Supplier<T> initialValueCreator)
+    {
+        this.initialValueCreator = checkNotNull(initialValueCreator);
+    }
+
+
+    /**
+     * @return the value for the calling {@link Thread}, or the initial value
+     *         if this has not been set or has been removed or reset
+     */
+    T get()
+    {
+        final Holder<T> holder = holders.get();
+        T value = holder.value;
+        if(value == null)
+        {
+            value = checkNotNull(initialValueCreator.get());
+            holder.value = value;
+        }
+        return value;
+    }
+
+
+    /**
+     * @param value
+     *            the new value for the calling {@link Thread} - does not
+     *            affect the value for any other {@link Thread}
+     */
+    void set(final T value)
+    {
+        expungeDeadHolders();
+        holders.get().value = checkNotNull(value);
+    }
+
+
+    /**
+     * Removes the value for the calling {@link Thread}. A subsequent call to
+     * {@link #get()} will return the initial value.
+     */
+    void remove()
+    {
+        holders.get().value = null;
+    }
+
+
+    /**
+     * Removes the values for ALL {@link Thread}s. Subsequent calls to
+     * {@link #get()} will return the initial value.
+     */
+    void reset()
+    {
+        for(final HolderReference<T> reference : registry)
+        {
+            final Holder<T> holder = reference.get();
+            if(holder != null)
+            {
+                holder.value = null;
+            }
+        }
+    }
+
+
+    /**
+     * @return the number of threads whose values are held, including any that
+     *         have died whose values have not been collected yet
+     */
+    int getHeldCount()
+    {
+        expungeDeadHolders();
+        return registry.size();
+    }
+
+
+    /**
+     * @return the number of threads that have died whose values have been
+     *         released and registrations removed
+     */
+    long getReclaimedCount()
+    {
+        expungeDeadHolders();
+        return reclaimed.sum();
+    }
+
+
+    private Holder<T> register()
+    {
+        expungeDeadHolders();
+        final Holder<T> holder = new Holder<>();
+        registry.add(new HolderReference<>(holder, deadHolders));
+        return holder;
+    }
+
+
+    private void expungeDeadHolders()
+    {
+        for(Object dead = deadHolders.poll(); dead != null; dead = deadHolders.poll())
+        {
+            if(registry.remove(dead))
+            {
+                reclaimed.increment();
+            }
+        }
+    }
+
+
+    private static final class Holder<T>
+    {
+        private volatile T value;
+    }
+
+
+    private static final class HolderReference<T> extends WeakReference<Holder<T>>
+    {
+
+        HolderReference(final Holder<T> holder,
+                        final ReferenceQueue<Holder<T>> queue)
+        {
+            super(holder, queue);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import uk.org.lidalia.slf4jext.Level;
+
+
+/**
+ * Store that applies a {@link RetentionPolicy} to the events added to it.
+ * <p/>
+ * Events are kept in a doubly linked list in the order they were added, and
+ * each is also in a queue for its level, so that the oldest event overall and
+ * the oldest of any level can both be removed in constant time. Events are
+ * only ever removed from the front of their level's queue: the oldest event
+ * overall is the oldest of its level, as is the oldest to expire. Expiry is
+ * driven by a single {@link TimerWheel} task per store, scheduled for when
+ * the oldest event expires, so appends never scan for expired events.
+ */
+final class RetainingEventStore implements EventStore<LoggingEvent>
+{
+
+    private final RetentionPolicy policy;
+    private final int[] maxEventsPerLevel = new int[Level.OFF.ordinal()];
+    private final long timeToLiveNanos;
+    private final TimerWheel timerWheel;
+
+    private final EventSizer sizer = new EventSizer();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final Deque<Node>[] levels = new Deque[Level.OFF.ordinal()];
+    private Node oldest;
+    private Node newest;
+    private int size;
+    private long bytes;
+    private long dropped;
+    private boolean sweepScheduled;
+
+
+    RetainingEventStore(final RetentionPolicy policy)
+    {
+        this(policy, TimerWheel.shared());
+    }
+
+
+    RetainingEventStore(final RetentionPolicy policy,
+                        final TimerWheel timerWheel)
+    {
+        this.policy = checkNotNull(policy);
+        this.timerWheel = checkNotNull(timerWheel);
+        this.timeToLiveNanos = policy.getTimeToLive().map(ttl -> ttl.toNanos()).orElse(Long.MAX_VALUE);
+        for(int i = 0; i < levels.length; i++)
+        {
+            levels[i] = new ArrayDeque<>();
+            maxEventsPerLevel[i] = policy.getMaxEvents(Level.values()[i]);
+        }
+    }
+
+
+    @Override
+    public void add(final LoggingEvent event)
+    {
+        final Node node = new Node(event, sizer.estimate(event), expiry());
+        List<LoggingEvent> discarded = Collections.emptyList();
+        lock.lock();
+        try
+        {
+            if(policy.getLimitAction() == RetentionPolicy.LimitAction.BLOCK)
+            {
+                while(!fits(node))
+                {
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            else
+            {
+                discarded = makeRoomFor(node);
+            }
+            append(node);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        passToCallback(discarded);
+    }
+
+
+    @Override
+    public List<LoggingEvent> snapshot()
+    {
+        lock.lock();
+        try
+        {
+            final List<LoggingEvent> events = new ArrayList<>(size);
+            for(Node node = oldest; node != null; node = node.next)
+            {
+                events.add(node.event);
+            }
+            return Collections.unmodifiableList(events);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        lock.lock();
+        try
+        {
+            return dropped;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public long getEstimatedSize()
+    {
+        lock.lock();
+        try
+        {
+            return bytes;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Discards all events, releasing any threads blocked adding to this store.
+     */
+    @Override
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            for(final Deque<Node> level : levels)
+            {
+                level.clear();
+            }
+            oldest = null;
+            newest = null;
+            size = 0;
+            bytes = 0;
+            dropped = 0;
+            sizer.reset();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Removes the events that have expired by now.
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}
+     */
+    void expire(final long now)
+    {
+        final List<LoggingEvent> expired = new ArrayList<>();
+        lock.lock();
+        try
+        {
+            sweepScheduled = false;
+            while(oldest != null && oldest.expiresAt - now <= 0)
+            {
+                expired.add(remove(oldest));
+            }
+            dropped += expired.size();
+            scheduleSweep();
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        passToCallback(expired);
+    }
+
+
+    private long expiry()
+    {
+        return timeToLiveNanos == Long.MAX_VALUE ? 0L : System.nanoTime() + timeToLiveNanos;
+    }
+
+
+    private boolean fits(final Node node)
+    {
+        return size < policy.getMaxEvents()
+               && levels[node.level].size() < maxEventsPerLevel[node.level]
+               && (size == 0 || bytes + node.bytes <= policy.getMaxBytes());
+    }
+
+
+    private List<LoggingEvent> makeRoomFor(final Node node)
+    {
+        if(fits(node))
+        {
+            return Collections.emptyList();
+        }
+        final List<LoggingEvent> discarded = new ArrayList<>();
+        final Deque<Node> level = levels[node.level];
+        while(level.size() >= maxEventsPerLevel[node.level])
+        {
+            discarded.add(remove(level.peekFirst()));
+        }
+        while(!fits(node))
+        {
+            discarded.add(remove(oldest));
+        }
+        dropped += discarded.size();
+        return discarded;
+    }
+
+
+    private void append(final Node node)
+    {
+        levels[node.level].addLast(node);
+        if(newest == null)
+        {
+            oldest = node;
+        }
+        else
+        {
+            newest.next = node;
+            node.previous = newest;
+        }
+        newest = node;
+        size++;
+        bytes += node.bytes;
+        scheduleSweep();
+    }
+
+
+    private LoggingEvent remove(final Node node)
+    {
+        levels[node.level].removeFirst();
+        if(node.previous == null)
+        {
+            oldest = node.next;
+        }
+        else
+        {
+            node.previous.next = node.next;
+        }
+        if(node.next == null)
+        {
+            newest = node.previous;
+        }
+        else
+        {
+            node.next.previous = node.previous;
+        }
+        size--;
+        bytes -= node.bytes;
+        return node.event;
+    }
+
+
+    private void scheduleSweep()
+    {
+        if(timeToLiveNanos != Long.MAX_VALUE && !sweepScheduled && oldest != null)
+        {
+            sweepScheduled = true;
+            timerWheel.schedule(oldest.expiresAt, () -> expire(System.nanoTime()));
+        }
+    }
+
+
+    private void passToCallback(final List<LoggingEvent> discarded)
+    {
+        if(!discarded.isEmpty() && policy.getCallback().isPresent())
+        {
+            final Consumer<LoggingEvent> callback = policy.getCallback().get();
+            for(final LoggingEvent event : discarded)
+            {
+                callback.accept(event);
+            }
+        }
+    }
+
+
+    private static final class Node
+    {
+
+        final LoggingEvent event;
+        final int level;
+        final long bytes;
+        final long expiresAt;
+        Node previous;
+        Node next;
+
+
+        Node(final LoggingEvent event,
+             final long bytes,
+             final long expiresAt)
+        {
+            this.event = checkNotNull(event);
+            this.level = event.getLevel().ordinal();
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import uk.org.lidalia.lang.Identity;
+import uk.org.lidalia.lang.RichObject;
+import uk.org.lidalia.slf4jext.Level;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+
+/**
+ * Limits on the {@link LoggingEvent}s a {@link TestLogger} keeps, and what to
+ * do when they are reached. Immutable; start from {@link #unlimited()} and
+ * add limits with the with... methods, for instance to keep every ERROR but
+ * only the most recent 10,000 DEBUGs for at most a minute:
+ *
+ * <pre>
+ * RetentionPolicy.unlimited()
+ *         .withMaxEvents(Level.DEBUG, 10000)
+ *         .withTimeToLive(Duration.ofMinutes(1))
+ * </pre>
+ *
+ * Policies are set with
+ * {@link TestLoggerFactory#setRetentionPolicy(RetentionPolicy)} or
+ * {@link TestLogger#setRetentionPolicy(RetentionPolicy)}, and only apply in
+ * {@link CaptureMode#UNBOUNDED}. Each logger applies its policy to the events
+ * it has captured from all threads; the same limits are applied to each per
+ * thread view and to the factory's events, but those always
+ * {@link LimitAction#DROP drop} their oldest events rather than block or call
+ * back, so that one event never causes more than one block or callback.
+ */
+public final class RetentionPolicy extends RichObject
+{
+
+    /**
+     * What a logger does when capturing an event would exceed a limit.
+     */
+    public enum LimitAction
+    {
+        /**
+         * Discard the oldest events until the new one fits.
+         */
+        DROP,
+
+        /**
+         * Block the logging thread until enough events have expired or been
+         * cleared for the new one to fit.
+         */
+        BLOCK,
+
+        /**
+         * Discard the oldest events until the new one fits, passing each to the
+         * policy's callback.
+         */
+        CALLBACK
+    }
+
+    private static final RetentionPolicy UNLIMITED = new RetentionPolicy(Integer.MAX_VALUE,
+                                                                         ImmutableMap.<Level, Integer> of(),
+                                                                         Long.MAX_VALUE,
+                                                                         Optional.<Duration> empty(),
+                                                                         LimitAction.DROP,
+                                                                         Optional.<Consumer<LoggingEvent>> empty());
+
+
+    /**
+     * @return the default policy, which keeps every event until it is cleared
+     */
+    public static RetentionPolicy unlimited()
+    {
+        return UNLIMITED;
+    }
+
+    @Identity
+    private final int maxEvents;
+    @Identity
+    private final ImmutableMap<Level, Integer> maxEventsPerLevel;
+    @Identity
+    private final long maxBytes;
+    @Identity
+    private final Optional<Duration> timeToLive;
+    @Identity
+    private final LimitAction limitAction;
+    @Identity
+    private final Optional<Consumer<LoggingEvent>> callback;
+
+
+    private RetentionPolicy(final int maxEvents,
+                            final ImmutableMap<Level, Integer> maxEventsPerLevel,
+                            final long maxBytes,
+                            final Optional<Duration> timeToLive,
+                            final LimitAction limitAction,
+                            final Optional<Consumer<LoggingEvent>> callback)
+    {
+        super();
+        this.maxEvents = maxEvents;
+        this.maxEventsPerLevel = maxEventsPerLevel;
+        this.maxBytes = maxBytes;
+        this.timeToLive = timeToLive;
+        this.limitAction = limitAction;
+        this.callback = callback;
+    }
+
+
+    /**
+     * @param maxEvents
+     *            the most events to keep, of all levels together
+     * @return a copy of this policy with that limit
+     */
+    public RetentionPolicy withMaxEvents(final int maxEvents)
+    {
+        checkArgument(maxEvents > 0, "maxEvents must be positive, was %s", maxEvents);
+        return new RetentionPolicy(maxEvents, maxEventsPerLevel, maxBytes, timeToLive, limitAction, callback);
+    }
+
+
+    /**
+     * @param level
+     *            the level to limit
+     * @param maxEvents
+     *            the most events of level to keep
+     * @return a copy of this policy with that limit
+     */
+    public RetentionPolicy withMaxEvents(final Level level,
+                                         final int maxEvents)
+    {
+        checkArgument(level != Level.OFF, "OFF has no events to limit");
+        checkArgument(maxEvents > 0, "maxEvents must be positive, was %s", maxEvents);
+        final Map<Level, Integer> newMaxEventsPerLevel = new EnumMap<>(Level.class);
+        newMaxEventsPerLevel.putAll(maxEventsPerLevel);
+        newMaxEventsPerLevel.put(level, maxEvents);
+        return new RetentionPolicy(this.maxEvents,
+                                   Maps.immutableEnumMap(newMaxEventsPerLevel),
+                                   maxBytes,
+                                   timeToLive,
+                                   limitAction,
+                                   callback);
+    }
+
+
+    /**
+     * @param maxBytes
+     *            the most heap the events kept should take up, as estimated by
+     *            SLF4J Test; the most recent event is always kept, however
+     *            large
+     * @return a copy of this policy with that limit
+     */
+    public RetentionPolicy withMaxBytes(final long maxBytes)
+    {
+        checkArgument(maxBytes > 0, "maxBytes must be positive, was %s", maxBytes);
+        return new RetentionPolicy(maxEvents, maxEventsPerLevel, maxBytes, timeToLive, limitAction, callback);
+    }
+
+
+    /**
+     * @param timeToLive
+     *            how long to keep each event for; expired events are removed
+     *            in the background, at a granularity of a few milliseconds
+     * @return a copy of this policy with that limit
+     */
+    public RetentionPolicy withTimeToLive(final Duration timeToLive)
+    {
+        checkArgument(!timeToLive.isNegative() && !timeToLive.isZero(), "timeToLive must be positive, was %s", timeToLive);
+        return new RetentionPolicy(maxEvents, maxEventsPerLevel, maxBytes, Optional.of(timeToLive), limitAction, callback);
+    }
+
+
+    /**
+     * @param limitAction
+     *            what to do when a limit is reached; for
+     *            {@link LimitAction#CALLBACK} use {@link #onLimit(Consumer)}
+     * @return a copy of this policy with that action
+     */
+    public RetentionPolicy onLimit(final LimitAction limitAction)
+    {
+        checkArgument(limitAction != LimitAction.CALLBACK, "use onLimit(Consumer) to set a callback");
+        return new RetentionPolicy(maxEvents,
+                                   maxEventsPerLevel,
+                                   maxBytes,
+                                   timeToLive,
+                                   checkNotNull(limitAction),
+                                   Optional.<Consumer<LoggingEvent>> empty());
+    }
+
+
+    /**
+     * @param callback
+     *            passed every event that is discarded, whether to make room
+     *            for a new one or because it has expired; called without any
+     *            lock held, on the logging thread or, for expired events, on
+     *            SLF4J Test's background thread
+     * @return a copy of this policy that discards the oldest events and passes
+     *         them to callback when a limit is reached
+     */
+    public RetentionPolicy onLimit(final Consumer<LoggingEvent> callback)
+    {
+        return new RetentionPolicy(maxEvents,
+                                   maxEventsPerLevel,
+                                   maxBytes,
+                                   timeToLive,
+                                   LimitAction.CALLBACK,
+                                   Optional.of(callback));
+    }
+
+
+    public int getMaxEvents()
+    {
+        return maxEvents;
+    }
+
+
+    /**
+     * @return the limit for level, or {@link Integer#MAX_VALUE} if it has none
+     */
+    public int getMaxEvents(final Level level)
+    {
+        return Optional.ofNullable(maxEventsPerLevel.get(level)).orElse(Integer.MAX_VALUE);
+    }
+
+
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+
+    public Optional<Duration> getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+
+    public LimitAction getLimitAction()
+    {
+        return limitAction;
+    }
+
+
+    public Optional<Consumer<LoggingEvent>> getCallback()
+    {
+        return callback;
+    }
+
+
+    boolean isUnlimited()
+    {
+        return maxEvents == Integer.MAX_VALUE
+               && maxEventsPerLevel.isEmpty()
+               && maxBytes == Long.MAX_VALUE
+               && !timeToLive.isPresent();
+    }
+
+
+    /**
+     * @return this policy's limits, but always dropping the oldest events when
+     *         they are reached
+     */
+    RetentionPolicy dropping()
+    {
+        return new RetentionPolicy(maxEvents,
+                                   maxEventsPerLevel,
+                                   maxBytes,
+                                   timeToLive,
+                                   LimitAction.DROP,
+                                   Optional.<Consumer<LoggingEvent>> empty());
+    }
+}
@@ -0,0 +1,194 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Store that keeps only the most recent elements, overwriting the oldest once
+ * it is full.
+ * <p/>
+ * Appends are wait free: a writer takes the next sequence number from a
+ * counter and writes its element, tagged with that number, into the slot the
+ * number maps to, unless a writer with a later number already has. It only
+ * has to retry if a writer with an earlier number, of which there can be no
+ * more than there are threads, writes the slot first. The slots are
+ * allocated when the first element is added, and dropped by
+ * {@link #clear()}, so a cleared buffer holds none of its elements.
+ * {@link #snapshot()} copies the elements whose sequence numbers fall in the
+ * current window, skipping any slot that has not yet been written or has
+ * already been overwritten.
+ *
+ * @param <T>
+ *            the type of the elements in this buffer
+ */
+final class RingBuffer<T> implements EventStore<T>
+{
+
+    private final int capacity;
+    private final AtomicReference<AtomicReferenceArray<Entry<T>>> slots = new AtomicReference<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long clearedAt;
+    private final SizeEstimator<? super T> sizeEstimator;
+    private final LongAdder estimatedSize = new LongAdder();
+
+
+    RingBuffer(final int capacity)
+    {
+        this(capacity, element -> 0L);
+    }
+
+
+    /**
+     * @param sizeEstimator
+     *            estimates the heap retained by each element
+     */
+    RingBuffer(final int capacity,
+               final SizeEstimator<? super T> sizeEstimator)
+    {
+        checkArgument(capacity > 0, "capacity must be positive, was %s", capacity);
+        this.capacity = capacity;
+        this.sizeEstimator = checkNotNull(sizeEstimator);
+    }
+
+
+    @Override
+    public void add(final T element)
+    {
+        checkNotNull(element);
+        final long number = sequence.getAndIncrement();
+        final Entry<T> entry = new Entry<>(number, element, sizeEstimator.estimate(element));
+        final AtomicReferenceArray<Entry<T>> current = slots();
+        final int index = index(number);
+        Entry<T> overwritten;
+        do
+        {
+            overwritten = current.get(index);
+            if(overwritten != null && overwritten.number > number)
+            {
+                // a writer a whole lap ahead got here first; this element has
+                // already been dropped
+                return;
+            }
+        }
+        while(!current.compareAndSet(index, overwritten, entry));
+        if(number < clearedAt)
+        {
+            // numbered before a clear; never read, so not counted
+            return;
+        }
+        final boolean overwroteCounted = overwritten != null && overwritten.number >= clearedAt;
+        estimatedSize.add(overwroteCounted ? entry.size - overwritten.size : entry.size);
+    }
+
+
+    @Override
+    public List<T> snapshot()
+    {
+        final AtomicReferenceArray<Entry<T>> current = slots.get();
+        if(current == null)
+        {
+            return Collections.emptyList();
+        }
+        final long end = sequence.get();
+        final long start = Math.max(clearedAt, end - capacity);
+        final List<T> window = new ArrayList<>((int) (end - start));
+        for(long number = start; number < end; number++)
+        {
+            final Entry<T> entry = current.get(index(number));
+            if(entry != null && entry.number == number)
+            {
+                window.add(entry.element);
+            }
+        }
+        return Collections.unmodifiableList(window);
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        return Math.max(0L, sequence.get() - clearedAt - capacity);
+    }
+
+
+    @Override
+    public long getEstimatedSize()
+    {
+        return estimatedSize.sum();
+    }
+
+
+    @Override
+    public boolean isBounded()
+    {
+        return true;
+    }
+
+
+    /**
+     * Discards all elements, and the slots that held them, which are
+     * allocated again when the next element is added.
+     */
+    @Override
+    public void clear()
+    {
+        // dropped before the sequence is read, so a writer with a later
+        // number never writes to the old slots
+        slots.set(null);
+        clearedAt = sequence.get();
+        estimatedSize.reset();
+        sizeEstimator.reset();
+    }
+
+
+    int getCapacity()
+    {
+        return capacity;
+    }
+
+
+    private AtomicReferenceArray<Entry<T>> slots()
+    {
+        final AtomicReferenceArray<Entry<T>> current = slots.get();
+        if(current != null)
+        {
+            return current;
+        }
+        slots.compareAndSet(null, new AtomicReferenceArray<Entry<T>>(capacity));
+        return slots.get();
+    }
+
+
+    private int index(final long number)
+    {
+        return (int) (number % capacity);
+    }
+
+
+    private static final class Entry<T>
+    {
+
+        final long number;
+        final T element;
+        final long size;
+
+
+        Entry(final long number,
+              final T element,
+              final long size)
+        {
+            this.number = number;
+            this.element = element;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package uk.org.lidalia.slf4jtest;
+
+
+/**
+ * Estimates the heap retained by each element added to a store. An estimate
+ * may depend on the elements the store already holds, such as an MDC
+ * snapshot an earlier element shares, so each store has an estimator of its
+ * own and resets it when it is cleared.
+ *
+ * @param <T>
+ *            the type of the elements estimated
+ */
+interface SizeEstimator<T>
+{
+
+    /**
+     * @return the estimated heap, in bytes, the element adds to the store it
+     *         is being added to
+     */
+    long estimate(T element);
+
+
+    /**
+     * Forgets the elements estimated so far, once the store they were added
+     * to has been cleared.
+     */
+    default void reset()
+    {
+    }
+}
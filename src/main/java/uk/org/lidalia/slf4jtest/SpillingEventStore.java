@@ -0,0 +1,253 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReentrantLock;
+
+import uk.org.lidalia.slf4jtest.EventSpill.Slot;
+
+
+/**
+ * Store that keeps every {@link LoggingEvent} until it is cleared, like
+ * {@link EventLog}, but whose oldest events are moved to disk by the
+ * {@link EventSpill} it shares with the other stores of its factory, once
+ * those they all hold on the heap are estimated to retain more than the
+ * spill's threshold.
+ * <p/>
+ * The store holds the {@link EventSpill.Slot slot} of each event not yet
+ * spilled, and the journal position of each event that has been, as a
+ * growing array of ints that later positions never overwrite.
+ * {@link #snapshot()} returns the journalled events followed by those still
+ * on the heap, as one list; journalled events are decoded as they are read,
+ * with the same arguments, though each call to {@link List#get(int)} returns
+ * a new, equal, event.
+ */
+final class SpillingEventStore implements EventStore<LoggingEvent>
+{
+
+    private static final int INITIAL_POSITIONS = 16;
+
+    private final EventSpill spill;
+    private final ReentrantLock lock;
+    private final ArrayDeque<Slot> onHeap = new ArrayDeque<>();
+    private int[] positions = new int[INITIAL_POSITIONS];
+    private int spilledCount;
+    private long estimatedSize;
+
+
+    /**
+     * @param spill
+     *            the spill shared by all the stores of the factory
+     */
+    SpillingEventStore(final EventSpill spill)
+    {
+        this.spill = checkNotNull(spill);
+        this.lock = spill.lock();
+    }
+
+
+    /**
+     * Never fails because events cannot be spilled; they are kept on the heap
+     * instead. Any events the spill picks to spill are written once the
+     * lock the stores share has been released.
+     */
+    @Override
+    public void add(final LoggingEvent element)
+    {
+        checkNotNull(element);
+        lock.lock();
+        try
+        {
+            final Slot slot = spill.hold(element);
+            onHeap.addLast(slot);
+            estimatedSize += slot.size();
+            removeSpilled();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        spill.spillPending();
+    }
+
+
+    /**
+     * @throws UncheckedIOException
+     *             if the journal could not be read
+     */
+    @Override
+    public List<LoggingEvent> snapshot()
+    {
+        lock.lock();
+        try
+        {
+            removeSpilled();
+            if(spilledCount == 0 && onHeap.isEmpty())
+            {
+                return Collections.emptyList();
+            }
+            final List<LoggingEvent> journalled = spill.journalled();
+            final LoggingEvent[] recent = new LoggingEvent[onHeap.size()];
+            int i = 0;
+            for(final Slot slot : onHeap)
+            {
+                // spilled before an event this store was given earlier
+                recent[i++] = slot.isSpilled() ? journalled.get(slot.position()) : slot.event();
+            }
+            return new Concatenation(new Journalled(journalled, positions, spilledCount), Arrays.asList(recent));
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public long getDroppedCount()
+    {
+        return 0L;
+    }
+
+
+    /**
+     * @return the estimated heap retained by the events not yet spilled
+     */
+    @Override
+    public long getEstimatedSize()
+    {
+        lock.lock();
+        try
+        {
+            removeSpilled();
+            return estimatedSize;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Discards all events. Views previously returned by {@link #snapshot()}
+     * are unaffected. The journal is only deleted once the
+     * {@link EventSpill#clear() spill} is cleared, with all its stores, so
+     * the disk space taken by this store's spilled events is not reclaimed
+     * until then.
+     */
+    @Override
+    public void clear()
+    {
+        lock.lock();
+        try
+        {
+            for(final Slot slot : onHeap)
+            {
+                spill.release(slot);
+            }
+            onHeap.clear();
+            positions = new int[INITIAL_POSITIONS];
+            spilledCount = 0;
+            estimatedSize = 0L;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Replaces the slots of the oldest events, as far as they have been
+     * spilled, with their positions in the journal.
+     */
+    private void removeSpilled()
+    {
+        while(!onHeap.isEmpty() && onHeap.peekFirst().isSpilled())
+        {
+            final Slot slot = onHeap.pollFirst();
+            estimatedSize -= slot.size();
+            if(spilledCount == positions.length)
+            {
+                // earlier snapshots keep the old array
+                positions = Arrays.copyOf(positions, spilledCount * 2);
+            }
+            positions[spilledCount++] = slot.position();
+        }
+    }
+
+
+    private static final class Journalled extends AbstractList<LoggingEvent> implements RandomAccess
+    {
+
+        private final List<LoggingEvent> journal;
+        private final int[] positions;
+        private final int size;
+
+
+        Journalled(final List<LoggingEvent> journal,
+                   final int[] positions,
+                   final int size)
+        {
+            this.journal = journal;
+            this.positions = positions;
+            this.size = size;
+        }
+
+
+        @Override
+        public LoggingEvent get(final int index)
+        {
+            if(index < 0 || index >= size)
+            {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return journal.get(positions[index]);
+        }
+
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+
+
+    private static final class Concatenation extends AbstractList<LoggingEvent> implements RandomAccess
+    {
+
+        private final List<LoggingEvent> first;
+        private final List<LoggingEvent> second;
+
+
+        Concatenation(final List<LoggingEvent> first,
+                      final List<LoggingEvent> second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+
+
+        @Override
+        public LoggingEvent get(final int index)
+        {
+            return index < first.size() ? first.get(index) : second.get(index - first.size());
+        }
+
+
+        @Override
+        public int size()
+        {
+            return first.size() + second.size();
+        }
+    }
+}
@@ -1,29 +1,36 @@
 package uk.org.lidalia.slf4jtest;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Sets.immutableEnumSet;
 import static java.util.Arrays.asList;
 import static uk.org.lidalia.slf4jext.Level.DEBUG;
 import static uk.org.lidalia.slf4jext.Level.ERROR;
 import static uk.org.lidalia.slf4jext.Level.INFO;
+import static uk.org.lidalia.slf4jext.Level.OFF;
 import static uk.org.lidalia.slf4jext.Level.TRACE;
 import static uk.org.lidalia.slf4jext.Level.WARN;
 import static uk.org.lidalia.slf4jext.Level.enablableValueSet;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.MDC;
 import org.slf4j.Marker;
-import org.slf4j.helpers.FormattingTuple;
-import org.slf4j.helpers.MessageFormatter;
 
-import uk.org.lidalia.lang.ThreadLocal;
 import uk.org.lidalia.slf4jext.Level;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 
@@ -57,11 +64,44 @@ public class TestLogger implements Logger
 
     private final String name;
     private final TestLoggerFactory testLoggerFactory;
-    private final ThreadLocal<List<LoggingEvent>> loggingEvents = new ThreadLocal<>(Suppliers
-            .<LoggingEvent> makeEmptyMutableList());
+    private volatile Optional<RetentionPolicy> retentionPolicy = Optional.empty();
 
-    private final List<LoggingEvent> allLoggingEvents = new CopyOnWriteArrayList<>();
-    private volatile ThreadLocal<ImmutableSet<Level>> enabledLevels = new ThreadLocal<>(enablableValueSet());
+    /*
+     * The events captured and calls counted; null until this logger is first
+     * called at an enabled level, and again once the events of all threads
+     * are cleared, so that the many loggers that are created but never log
+     * hold no stores.
+     */
+    private volatile Storage storage;
+
+    /*
+     * Sampling rates indexed by level ordinal, replaced rather than mutated;
+     * NaN means the level's rate is the factory's default.
+     */
+    private static final double[] INHERITED_SAMPLING_RATES = inheritedSamplingRates();
+    private volatile double[] samplingRates = INHERITED_SAMPLING_RATES;
+
+    /*
+     * The levels enabled for all threads as a bit mask indexed by ordinal. The
+     * top bit is set once any thread has overridden its own enabled levels;
+     * until then isXxxEnabled() is a single volatile read and never consults
+     * the per thread overrides.
+     */
+    private static final int PER_THREAD_OVERRIDES = 1 << 31;
+    private static final EnabledLevelsOverride NO_OVERRIDE = new EnabledLevelsOverride(0, 0L);
+    private final AtomicInteger enabledLevels = new AtomicInteger(mask(enablableValueSet()));
+    // null until a thread first overrides its enabled levels
+    private volatile ResettableThreadLocal<EnabledLevelsOverride> enabledLevelsOverride;
+
+    /*
+     * The factory's clearAllLoggers() is not applied to each logger when it
+     * is called, but by each logger the next time it is used; this is the
+     * epoch of the last one this logger has applied. The lock also guards
+     * allocating and releasing the storage and overrides.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long appliedClearAll;
+    private volatile long reclaimedByReleased;
 
 
     TestLogger(final String name,
@@ -69,6 +109,7 @@ public class TestLogger implements Logger
     {
         this.name = name;
         this.testLoggerFactory = testLoggerFactory;
+        this.appliedClearAll = testLoggerFactory.getClearAllEpoch();
     }
 
 
@@ -86,8 +127,17 @@ public class TestLogger implements Logger
      */
     public void clear()
     {
-        loggingEvents.get().clear();
-        enabledLevels.remove();
+        applyFactoryClearAll();
+        final Storage current = storage;
+        if(current != null)
+        {
+            current.threads.clear(current.allThreads);
+        }
+        final ResettableThreadLocal<EnabledLevelsOverride> overrides = enabledLevelsOverride;
+        if(overrides != null)
+        {
+            overrides.remove();
+        }
     }
 
 
@@ -99,9 +149,52 @@ public class TestLogger implements Logger
      */
     public void clearAll()
     {
-        allLoggingEvents.clear();
-        loggingEvents.reset();
-        enabledLevels.reset();
+        lock.lock();
+        try
+        {
+            releaseStorage();
+            // cleared before the overrides are released, under the lock, so
+            // that it cannot wipe the bit an override set afterwards sets
+            enabledLevels.getAndUpdate(state -> state & ~PER_THREAD_OVERRIDES);
+            releaseOverrides();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Clears all events and enabled levels, as {@link #clearAll()} does, if
+     * the factory's {@link TestLoggerFactory#clearAllLoggers()} has been
+     * called since this logger last did so. Called first by every method
+     * that reads or changes this logger's state, and by logging calls once
+     * the level is known to be enabled, but not by the level checks
+     * themselves unless threads have overridden their levels.
+     */
+    private void applyFactoryClearAll()
+    {
+        if(testLoggerFactory.getClearAllEpoch() == appliedClearAll)
+        {
+            return;
+        }
+        lock.lock();
+        try
+        {
+            // the epoch is recorded only once the clear is done, so that no
+            // thread logs an event the clear then discards
+            final long epoch = testLoggerFactory.getClearAllEpoch();
+            if(epoch != appliedClearAll)
+            {
+                clearAll();
+                appliedClearAll = epoch;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
 
@@ -110,16 +203,255 @@ public class TestLogger implements Logger
      */
     public List<LoggingEvent> getLoggingEvents()
     {
-        return Collections.unmodifiableList(loggingEvents.get());
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return current == null ? Collections.<LoggingEvent> emptyList()
+                : current.threads.snapshot(current.allThreads);
     }
 
 
     /**
-     * @return all {@link LoggingEvent}s logged on this logger by ANY thread
+     * Events are in {@link LoggingEvent#getSequence() sequence} order. While
+     * other threads are logging the snapshot holds every event logged before
+     * it was taken, and each thread's events up to some point, but not
+     * necessarily every event with a lower sequence than the last it holds:
+     * an event another thread is still adding may be missing, and appear in
+     * later snapshots before events already returned.
+     *
+     * @return all {@link LoggingEvent}s logged on this logger by ANY thread, as
+     *         an immutable snapshot that is not affected by subsequent logging
      */
     public List<LoggingEvent> getAllLoggingEvents()
     {
-        return Collections.unmodifiableList(allLoggingEvents);
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return current == null ? Collections.<LoggingEvent> emptyList() : current.allThreads.snapshot();
+    }
+
+
+    /**
+     * @return the number of {@link LoggingEvent}s logged on this logger by ANY
+     *         thread since it was last cleared that are no longer returned by
+     *         {@link #getAllLoggingEvents()} because the
+     *         {@link TestLoggerFactory#getCaptureMode() capture mode} bounds
+     *         how many are kept
+     */
+    public long getDroppedLoggingEventCount()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return current == null ? 0L : current.allThreads.getDroppedCount();
+    }
+
+
+    /**
+     * @return an estimate, in bytes, of the heap retained by the
+     *         {@link LoggingEvent}s this logger currently holds for ALL
+     *         threads, or under {@link CaptureMode#OFF_HEAP} of the direct
+     *         memory they occupy; kept up to date as events are captured,
+     *         dropped and cleared, so cheap to call
+     */
+    public long getMemoryUsage()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return current == null ? 0L : current.allThreads.getEstimatedSize();
+    }
+
+
+    /**
+     * @return how many times less heap the {@link LoggingEvent}s this logger
+     *         holds retain than they would uncompressed; above 1 only under
+     *         {@link CaptureMode#COMPRESSED}, once events have been compressed
+     */
+    public double getCompressionRatio()
+    {
+        return compressionRatio(getUncompressedMemoryUsage(), getMemoryUsage());
+    }
+
+
+    /**
+     * @return the number of entries this logger holds for individual threads
+     *         - their events and enabled levels; entries for threads that have
+     *         ended are released once collected, without a
+     *         {@link #clearAll()}
+     */
+    public int getThreadEntryCount()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        final ResettableThreadLocal<EnabledLevelsOverride> overrides = enabledLevelsOverride;
+        return (current == null ? 0 : current.threads.getHeldCount())
+                + (overrides == null ? 0 : overrides.getHeldCount());
+    }
+
+
+    /**
+     * @return the number of entries this logger held for threads that have
+     *         ended which have since been reclaimed
+     */
+    public long getReclaimedThreadEntryCount()
+    {
+        final Storage current = storage;
+        final ResettableThreadLocal<EnabledLevelsOverride> overrides = enabledLevelsOverride;
+        return reclaimedByReleased
+                + (current == null ? 0L : current.threads.getReclaimedCount())
+                + (overrides == null ? 0L : overrides.getReclaimedCount());
+    }
+
+
+    long getUncompressedMemoryUsage()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return current == null ? 0L : current.allThreads.getUncompressedSize();
+    }
+
+
+    static double compressionRatio(final long uncompressedSize,
+                                   final long estimatedSize)
+    {
+        return estimatedSize == 0L ? 1.0 : (double) uncompressedSize / estimatedSize;
+    }
+
+
+    /**
+     * @param level
+     *            the level to count
+     * @return the number of calls at level made on this logger by ANY thread
+     *         while level was enabled, since it was last cleared; counted in
+     *         every {@link CaptureMode}, and unaffected by events being
+     *         dropped
+     */
+    public long getEventCount(final Level level)
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return level == OFF || current == null ? 0L : current.eventCounts[level.ordinal()].sum();
+    }
+
+
+    /**
+     * @return {@link #getEventCount(Level)} for every enablable level
+     */
+    public Map<Level, Long> getEventCounts()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return counts(current == null ? null : current.eventCounts);
+    }
+
+
+    /**
+     * @param level
+     *            the level to count
+     * @return the number of calls at level made on this logger by ANY thread,
+     *         since it was last cleared, for which no {@link LoggingEvent} was
+     *         captured because of its {@link #getSamplingRate(Level) sampling
+     *         rate}
+     */
+    public long getSampledOutCount(final Level level)
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return level == OFF || current == null ? 0L : current.sampledOutCounts[level.ordinal()].sum();
+    }
+
+
+    /**
+     * @return {@link #getSampledOutCount(Level)} for every enablable level
+     */
+    public Map<Level, Long> getSampledOutCounts()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        return counts(current == null ? null : current.sampledOutCounts);
+    }
+
+
+    private static Map<Level, Long> counts(final LongAdder[] adders)
+    {
+        final Map<Level, Long> counts = new EnumMap<>(Level.class);
+        for(final Level level : enablableValueSet())
+        {
+            counts.put(level, adders == null ? 0L : adders[level.ordinal()].sum());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+
+    /**
+     * @param level
+     *            the level whose rate is wanted
+     * @return the probability that a call at level, when enabled, is captured
+     *         as a {@link LoggingEvent}; the
+     *         {@link TestLoggerFactory#getDefaultSamplingRate(Level) factory's
+     *         default} unless set on this logger
+     */
+    public double getSamplingRate(final Level level)
+    {
+        final double rate = samplingRates[level.ordinal()];
+        return Double.isNaN(rate) ? testLoggerFactory.getDefaultSamplingRate(level) : rate;
+    }
+
+
+    /**
+     * Sets the probability that a call at level, when enabled, is captured as
+     * a {@link LoggingEvent}, for ALL threads. Calls that are not captured are
+     * still counted, by {@link #getEventCount(Level)} and
+     * {@link #getSampledOutCount(Level)}. The decision is made before the
+     * event is built, so calls that are sampled out cost almost nothing.
+     * Unlike the captured events, sampling rates are not reset by
+     * {@link #clearAll()}.
+     *
+     * @param level
+     *            the level to sample
+     * @param rate
+     *            between 0 (capture no events) and 1 (capture every event)
+     */
+    public void setSamplingRate(final Level level,
+                                final double rate)
+    {
+        checkSamplingRate(level, rate);
+        final double[] newRates = samplingRates.clone();
+        newRates[level.ordinal()] = rate;
+        samplingRates = newRates;
+    }
+
+
+    /**
+     * Reverts the sampling rate of every level of this logger to the
+     * factory's default.
+     */
+    public void clearSamplingRates()
+    {
+        samplingRates = INHERITED_SAMPLING_RATES;
+    }
+
+
+    static void checkSamplingRate(final Level level,
+                                  final double rate)
+    {
+        checkArgument(level != OFF, "OFF has no sampling rate");
+        checkArgument(rate >= 0.0 && rate <= 1.0, "sampling rate must be between 0 and 1, was %s", rate);
+    }
+
+
+    private static double[] inheritedSamplingRates()
+    {
+        final double[] rates = new double[Level.values().length];
+        Arrays.fill(rates, Double.NaN);
+        return rates;
+    }
+
+
+    /**
+     * @return all {@link LoggingEvent}s logged on this logger by ANY thread,
+     *         keyed by {@link LoggingEvent#getThreadId()}
+     */
+    public Map<Long, List<LoggingEvent>> getAllLoggingEventsByThread()
+    {
+        return ThreadMetadata.groupByThread(getAllLoggingEvents());
     }
 
 
@@ -129,7 +461,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isTraceEnabled()
     {
-        return enabledLevels.get().contains(TRACE);
+        return isEnabled(TRACE);
     }
 
 
@@ -176,7 +508,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isTraceEnabled(final Marker marker)
     {
-        return enabledLevels.get().contains(TRACE);
+        return isEnabled(TRACE);
     }
 
 
@@ -231,7 +563,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isDebugEnabled()
     {
-        return enabledLevels.get().contains(DEBUG);
+        return isEnabled(DEBUG);
     }
 
 
@@ -278,7 +610,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isDebugEnabled(final Marker marker)
     {
-        return enabledLevels.get().contains(DEBUG);
+        return isEnabled(DEBUG);
     }
 
 
@@ -333,7 +665,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isInfoEnabled()
     {
-        return enabledLevels.get().contains(INFO);
+        return isEnabled(INFO);
     }
 
 
@@ -380,7 +712,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isInfoEnabled(final Marker marker)
     {
-        return enabledLevels.get().contains(INFO);
+        return isEnabled(INFO);
     }
 
 
@@ -435,7 +767,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isWarnEnabled()
     {
-        return enabledLevels.get().contains(WARN);
+        return isEnabled(WARN);
     }
 
 
@@ -482,7 +814,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isWarnEnabled(final Marker marker)
     {
-        return enabledLevels.get().contains(WARN);
+        return isEnabled(WARN);
     }
 
 
@@ -537,7 +869,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isErrorEnabled()
     {
-        return enabledLevels.get().contains(ERROR);
+        return isEnabled(ERROR);
     }
 
 
@@ -584,7 +916,7 @@ public class TestLogger implements Logger
     @Override
     public boolean isErrorEnabled(final Marker marker)
     {
-        return enabledLevels.get().contains(ERROR);
+        return isEnabled(ERROR);
     }
 
 
@@ -633,11 +965,57 @@ public class TestLogger implements Logger
     }
 
 
+    /*
+     * Every log method checks whether the level is enabled before doing any
+     * other work, so that a call on a disabled level does no formatting, no
+     * Optional or argument array allocation and no MDC copy. Enabled calls
+     * leave formatting, including finding a trailing throwable, to the
+     * LoggingEvent, which only does it once the event is inspected.
+     */
+    private void log(final Level level,
+                     final String msg)
+    {
+        if(isEnabled(level))
+        {
+            addLoggingEvent(level,
+                            Optional.<Marker> empty(),
+                            Optional.<Throwable> empty(),
+                            msg);
+        }
+    }
+
+
     private void log(final Level level,
                      final String format,
-                     final Object... args)
+                     final Object arg)
     {
-        log(level, format, Optional.<Marker> empty(), args);
+        if(isEnabled(level))
+        {
+            logFormatted(level, format, Optional.<Marker> empty(), new Object[] { arg });
+        }
+    }
+
+
+    private void log(final Level level,
+                     final String format,
+                     final Object arg1,
+                     final Object arg2)
+    {
+        if(isEnabled(level))
+        {
+            logFormatted(level, format, Optional.<Marker> empty(), new Object[] { arg1, arg2 });
+        }
+    }
+
+
+    private void log(final Level level,
+                     final String format,
+                     final Object[] args)
+    {
+        if(isEnabled(level))
+        {
+            logFormatted(level, format, Optional.<Marker> empty(), args);
+        }
     }
 
 
@@ -645,77 +1023,409 @@ public class TestLogger implements Logger
                      final String msg,
                      final Throwable throwable)
     { // NOPMD PMD wrongly thinks unused...
-        addLoggingEvent(level,
-                        Optional.<Marker> empty(),
-                        Optional.ofNullable(throwable),
-                        msg);
+        if(isEnabled(level))
+        {
+            addLoggingEvent(level,
+                            Optional.<Marker> empty(),
+                            Optional.ofNullable(throwable),
+                            msg);
+        }
+    }
+
+
+    private void log(final Level level,
+                     final Marker marker,
+                     final String msg)
+    {
+        if(isEnabled(level))
+        {
+            addLoggingEvent(level,
+                            Optional.ofNullable(marker),
+                            Optional.<Throwable> empty(),
+                            msg);
+        }
     }
 
 
     private void log(final Level level,
                      final Marker marker,
                      final String format,
-                     final Object... args)
+                     final Object arg)
     {
-        log(level, format, Optional.ofNullable(marker), args);
+        if(isEnabled(level))
+        {
+            logFormatted(level, format, Optional.ofNullable(marker), new Object[] { arg });
+        }
     }
 
 
     private void log(final Level level,
                      final Marker marker,
-                     final String msg,
-                     final Throwable throwable)
+                     final String format,
+                     final Object arg1,
+                     final Object arg2)
     {
-        addLoggingEvent(level,
-                        Optional.ofNullable(marker),
-                        Optional.ofNullable(throwable),
-                        msg);
+        if(isEnabled(level))
+        {
+            logFormatted(level, format, Optional.ofNullable(marker), new Object[] { arg1, arg2 });
+        }
     }
 
 
     private void log(final Level level,
+                     final Marker marker,
                      final String format,
-                     final Optional<Marker> marker,
                      final Object[] args)
     {
-        final FormattingTuple formattedArgs = MessageFormatter
-                .arrayFormat(format, args);
-        addLoggingEvent(level,
-                        marker,
-                        Optional.ofNullable(formattedArgs.getThrowable()),
-                        format,
-                        formattedArgs.getArgArray());
+        if(isEnabled(level))
+        {
+            logFormatted(level, format, Optional.ofNullable(marker), args);
+        }
+    }
+
+
+    private void log(final Level level,
+                     final Marker marker,
+                     final String msg,
+                     final Throwable throwable)
+    {
+        if(isEnabled(level))
+        {
+            addLoggingEvent(level,
+                            Optional.ofNullable(marker),
+                            Optional.ofNullable(throwable),
+                            msg);
+        }
+    }
+
+
+    private void logFormatted(final Level level,
+                              final String format,
+                              final Optional<Marker> marker,
+                              final Object[] args)
+    {
+        if(!count(level))
+        {
+            return;
+        }
+        addLoggingEvent(new LoggingEvent(Optional.of(this),
+                                         level,
+                                         mdc(),
+                                         marker,
+                                         format,
+                                         args));
+    }
+
+
+    private boolean isEnabled(final Level level)
+    {
+        return (enabledLevelsMask() & bit(level)) != 0;
+    }
+
+
+    private int enabledLevelsMask()
+    {
+        final int state = enabledLevels.get();
+        if((state & PER_THREAD_OVERRIDES) == 0)
+        {
+            return state;
+        }
+        // the factory's clearAllLoggers() keeps the levels enabled for all
+        // threads, so only needs applying before the overrides are read
+        applyFactoryClearAll();
+        final ResettableThreadLocal<EnabledLevelsOverride> overrides = enabledLevelsOverride;
+        final EnabledLevelsOverride override = overrides == null ? NO_OVERRIDE : overrides.get();
+        // an override set before the factory last cleared this thread is void
+        if(override == NO_OVERRIDE || override.setAt <= testLoggerFactory.getThreadClearedAt())
+        {
+            return state & ~PER_THREAD_OVERRIDES;
+        }
+        return override.mask;
+    }
+
+
+    private static int bit(final Level level)
+    {
+        return 1 << level.ordinal();
+    }
+
+
+    private static int mask(final Set<Level> levels)
+    {
+        int mask = 0;
+        for(final Level level : levels)
+        {
+            mask |= bit(level);
+        }
+        return mask;
+    }
+
+
+    private static ImmutableSet<Level> levels(final int mask)
+    {
+        final List<Level> levels = new ArrayList<>();
+        for(final Level level : Level.values())
+        {
+            if((mask & bit(level)) != 0)
+            {
+                levels.add(level);
+            }
+        }
+        return immutableEnumSet(levels);
     }
 
 
     private void addLoggingEvent(final Level level,
                                  final Optional<Marker> marker,
                                  final Optional<Throwable> throwable,
-                                 final String format,
-                                 final Object... args)
+                                 final String msg)
     {
-        if(enabledLevels.get().contains(level))
+        if(!count(level))
         {
-            final LoggingEvent event = new LoggingEvent(Optional.of(this),
-                                                        level,
-                                                        mdc(),
-                                                        marker,
-                                                        throwable,
-                                                        format,
-                                                        args);
-            allLoggingEvents.add(event);
-            loggingEvents.get().add(event);
-            testLoggerFactory.addLoggingEvent(event);
-            optionallyPrint(event);
+            return;
         }
+        addLoggingEvent(new LoggingEvent(Optional.of(this),
+                                         level,
+                                         mdc(),
+                                         marker,
+                                         throwable,
+                                         msg));
+    }
+
+
+    /**
+     * Counts a call at an enabled level.
+     *
+     * @return whether a {@link LoggingEvent} should be captured for the call
+     */
+    private boolean count(final Level level)
+    {
+        applyFactoryClearAll();
+        final Storage current = storage();
+        current.eventCounts[level.ordinal()].increment();
+        if(testLoggerFactory.getCaptureMode() == CaptureMode.COUNT_ONLY)
+        {
+            return false;
+        }
+        if(sampledOut(level))
+        {
+            current.sampledOutCounts[level.ordinal()].increment();
+            return false;
+        }
+        return true;
+    }
+
+
+    private boolean sampledOut(final Level level)
+    {
+        final double rate = getSamplingRate(level);
+        return rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate;
+    }
+
+
+    private void addLoggingEvent(final LoggingEvent event)
+    {
+        final Storage current = storage();
+        final EventStore<LoggingEvent> allThreads = current.allThreads;
+        testLoggerFactory.addLoggingEvent(event, allThreads);
+        current.threads.add(event, allThreads);
+        optionallyPrint(event);
     }
 
 
     @SuppressWarnings("unchecked")
     private Map<String, String> mdc()
     {
-        return Optional.ofNullable(MDC.getCopyOfContextMap())
-                .orElse(Collections.emptyMap());
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return mdc == null ? ImmutableMap.<String, String> of() : mdc;
+    }
+
+
+    /**
+     * @return the limits on the events this logger keeps; the
+     *         {@link TestLoggerFactory#getRetentionPolicy() factory's} unless
+     *         set on this logger
+     */
+    public RetentionPolicy getRetentionPolicy()
+    {
+        return retentionPolicy.orElse(testLoggerFactory.getRetentionPolicy());
+    }
+
+
+    /**
+     * Sets the limits on the events this logger keeps, which only apply in
+     * {@link CaptureMode#UNBOUNDED}. All events this logger has captured so
+     * far are discarded.
+     *
+     * @param retentionPolicy
+     *            the limits, and what to do when they are reached
+     */
+    public void setRetentionPolicy(final RetentionPolicy retentionPolicy)
+    {
+        this.retentionPolicy = Optional.of(retentionPolicy);
+        replaceEventStores();
+    }
+
+
+    /**
+     * Reverts this logger to the factory's retention policy. All events this
+     * logger has captured so far are discarded.
+     */
+    public void clearRetentionPolicy()
+    {
+        this.retentionPolicy = Optional.empty();
+        replaceEventStores();
+    }
+
+
+    /**
+     * Discards all events and counts, and the stores that held them; the next
+     * event is stored as the factory's current capture mode and this
+     * logger's retention policy then say. Threads blocked by the old stores
+     * are released.
+     */
+    void replaceEventStores()
+    {
+        lock.lock();
+        try
+        {
+            releaseStorage();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Discards the events the factory has cleared, for all threads or for
+     * the calling thread, that this logger still holds because it has not
+     * been used since; the factory calls it on every logger when reading
+     * their memory usage, so that loggers no longer used do not keep cleared
+     * events.
+     */
+    void reclaim()
+    {
+        applyFactoryClearAll();
+        final Storage current = storage;
+        if(current != null)
+        {
+            current.threads.reclaim(current.allThreads);
+        }
+    }
+
+
+    /**
+     * @return whether this logger currently holds stores for its events
+     */
+    boolean isStorageAllocated()
+    {
+        return storage != null;
+    }
+
+
+    private Storage storage()
+    {
+        final Storage current = storage;
+        return current != null ? current : allocateStorage();
+    }
+
+
+    private Storage allocateStorage()
+    {
+        lock.lock();
+        try
+        {
+            Storage allocated = storage;
+            if(allocated == null)
+            {
+                final EventStore<LoggingEvent> allThreads = testLoggerFactory
+                        .newAllThreadsEventStore(getRetentionPolicy());
+                final ThreadEvents threads = new ThreadEvents(testLoggerFactory::getThreadStorage,
+                        () -> testLoggerFactory.newEventStore(getRetentionPolicy().dropping()),
+                        testLoggerFactory::getThreadClearedAt);
+                allocated = new Storage(allThreads, threads);
+                storage = allocated;
+            }
+            return allocated;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Returns this logger to the state of one that has never logged. Called
+     * with the lock held.
+     */
+    private void releaseStorage()
+    {
+        final Storage released = storage;
+        if(released != null)
+        {
+            storage = null;
+            reclaimedByReleased += released.threads.getReclaimedCount();
+            released.allThreads.clear();
+            released.threads.reset();
+        }
+    }
+
+
+    private ResettableThreadLocal<EnabledLevelsOverride> overrides()
+    {
+        final ResettableThreadLocal<EnabledLevelsOverride> current = enabledLevelsOverride;
+        if(current != null)
+        {
+            return current;
+        }
+        lock.lock();
+        try
+        {
+            if(enabledLevelsOverride == null)
+            {
+                enabledLevelsOverride = new ResettableThreadLocal<>(NO_OVERRIDE);
+            }
+            return enabledLevelsOverride;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Discards the enabled levels of every thread. Called with the lock held.
+     */
+    private void releaseOverrides()
+    {
+        final ResettableThreadLocal<EnabledLevelsOverride> released = enabledLevelsOverride;
+        if(released != null)
+        {
+            enabledLevelsOverride = null;
+            reclaimedByReleased += released.getReclaimedCount();
+            released.reset();
+        }
+    }
+
+
+    private static LongAdder[] newEventCounts()
+    {
+        final LongAdder[] eventCounts = new LongAdder[OFF.ordinal()];
+        for(int i = 0; i < eventCounts.length; i++)
+        {
+            eventCounts[i] = new LongAdder();
+        }
+        return eventCounts;
+    }
+
+
+    EventClock getClock()
+    {
+        return testLoggerFactory.getClock();
     }
 
 
@@ -733,7 +1443,7 @@ public class TestLogger implements Logger
      */
     public ImmutableSet<Level> getEnabledLevels()
     {
-        return enabledLevels.get();
+        return levels(enabledLevelsMask());
     }
 
 
@@ -752,7 +1462,9 @@ public class TestLogger implements Logger
      */
     public void setEnabledLevels(final ImmutableSet<Level> enabledLevels)
     {
-        this.enabledLevels.set(enabledLevels);
+        applyFactoryClearAll();
+        overrides().set(new EnabledLevelsOverride(mask(enabledLevels), EventSequence.next()));
+        this.enabledLevels.getAndUpdate(state -> state | PER_THREAD_OVERRIDES);
     }
 
 
@@ -790,7 +1502,18 @@ public class TestLogger implements Logger
      */
     public void setEnabledLevelsForAllThreads(final ImmutableSet<Level> enabledLevelsForAllThreads)
     {
-        this.enabledLevels = new ThreadLocal<>(enabledLevelsForAllThreads);
+        applyFactoryClearAll();
+        lock.lock();
+        try
+        {
+            // as in clearAll(), set before the overrides are released
+            this.enabledLevels.set(mask(enabledLevelsForAllThreads));
+            releaseOverrides();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
 
@@ -812,4 +1535,45 @@ public class TestLogger implements Logger
         setEnabledLevelsForAllThreads(ImmutableSet
                 .copyOf(enabledLevelsForAllThreads));
     }
+
+
+    /**
+     * Levels enabled for one thread, and the {@link LoggingEvent#getSequence()
+     * sequence} at which they were set.
+     */
+    private static final class EnabledLevelsOverride
+    {
+
+        private final int mask;
+        private final long setAt;
+
+
+        EnabledLevelsOverride(final int mask,
+                              final long setAt)
+        {
+            this.mask = mask;
+            this.setAt = setAt;
+        }
+    }
+
+
+    /**
+     * The events and counts of a logger that has logged.
+     */
+    private static final class Storage
+    {
+
+        private final EventStore<LoggingEvent> allThreads;
+        private final ThreadEvents threads;
+        private final LongAdder[] eventCounts = newEventCounts();
+        private final LongAdder[] sampledOutCounts = newEventCounts();
+
+
+        Storage(final EventStore<LoggingEvent> allThreads,
+                final ThreadEvents threads)
+        {
+            this.allThreads = allThreads;
+            this.threads = threads;
+        }
+    }
 }
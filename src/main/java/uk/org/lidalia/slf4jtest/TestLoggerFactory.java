@@ -1,10 +1,16 @@
 package uk.org.lidalia.slf4jtest;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -12,12 +18,11 @@ import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.ILoggerFactory;
 
 import uk.org.lidalia.lang.LazyValue;
-import uk.org.lidalia.lang.ThreadLocal;
 import uk.org.lidalia.slf4jext.Level;
 
 
@@ -80,16 +85,70 @@ public final class TestLoggerFactory implements ILoggerFactory
         return getInstance().getAllLoggingEventsFromLoggers();
     }
 
+
+    public static long getDroppedLoggingEventCount()
+    {
+        return getInstance().getDroppedLoggingEventCountFromLoggers();
+    }
+
+
+    public static Map<String, Map<Level, Long>> getEventCounts()
+    {
+        return getInstance().getEventCountsFromLoggers();
+    }
+
+
+    public static Map<Long, List<LoggingEvent>> getAllLoggingEventsByThread()
+    {
+        return getInstance().getAllLoggingEventsFromLoggersByThread();
+    }
+
+
+    /**
+     * Opens a {@link CaptureScope} that captures the events logged on this
+     * thread, and on any thread the scope is propagated to, until it is
+     * closed.
+     */
+    public static CaptureScope openScope()
+    {
+        return CaptureScope.open();
+    }
+
+    static final int DEFAULT_CAPTURE_CAPACITY = 10000;
+
     private final ConcurrentMap<String, TestLogger> loggers = new ConcurrentHashMap<>();
-    private final List<LoggingEvent> allLoggingEvents = new CopyOnWriteArrayList<>();
-    private final ThreadLocal<List<LoggingEvent>> loggingEvents = new ThreadLocal<>(Suppliers
-            .<LoggingEvent> makeEmptyMutableList());
+    private volatile CaptureMode captureMode;
+    private volatile int captureCapacity;
+    private volatile RetentionPolicy retentionPolicy = RetentionPolicy.unlimited();
+    private volatile long spillThreshold;
+    private volatile Optional<EventSpill> spill = Optional.empty();
+    private final LazyValue<Path> journalDirectory = new LazyValue<>(() -> createJournalDirectory());
+    private volatile EventStore<LoggingEvent> allLoggingEvents;
+    private volatile ThreadStorage threadStorage = ThreadStorage.THREAD_LOCAL;
+    private final ThreadEvents loggingEvents = new ThreadEvents(() -> threadStorage,
+                                                                () -> newEventStore(retentionPolicy.dropping()));
     private volatile Level printLevel;
+    private volatile EventClock clock = EventClocks.system();
+    private volatile double[] defaultSamplingRates = allSampled();
 
+    /*
+     * Clearing loggers is recorded here rather than applied to each of them,
+     * so that it takes the same time however many loggers there are; each
+     * logger applies it the next time it is used.
+     */
+    private final AtomicLong clearAllEpoch = new AtomicLong();
+    private final ResettableThreadLocal<Long> threadClearedAt = new ResettableThreadLocal<>(0L);
 
-    private TestLoggerFactory(final Level printLevel)
+
+    private TestLoggerFactory(final Level printLevel,
+                              final CaptureMode captureMode,
+                              final int captureCapacity)
     {
+        checkArgument(captureCapacity > 0, "capture capacity must be positive, was %s", captureCapacity);
         this.printLevel = checkNotNull(printLevel);
+        this.captureMode = checkNotNull(captureMode);
+        this.captureCapacity = captureCapacity;
+        this.allLoggingEvents = newAllThreadsEventStore(retentionPolicy.dropping());
     }
 
 
@@ -111,32 +170,75 @@ public final class TestLoggerFactory implements ILoggerFactory
     }
 
 
+    /**
+     * Looks the logger up before creating it, so that getting an existing
+     * logger - the common case, when loggers are got per object or per
+     * request - allocates nothing.
+     */
     public TestLogger getLogger(final String name)
     {
+        final TestLogger existing = loggers.get(name);
+        if(existing != null)
+        {
+            return existing;
+        }
         final TestLogger newLogger = new TestLogger(name, this);
         return Optional.ofNullable(loggers.putIfAbsent(name, newLogger))
                 .orElse(newLogger);
     }
 
 
+    /**
+     * Clears the calling thread's events and enabled levels in every logger,
+     * as {@link TestLogger#clear()} does, and in this factory. Takes the same
+     * time however many loggers there are: the loggers read only the events
+     * and levels their thread has logged and set since, and discard the
+     * events they hold for the thread alone the next time the thread uses
+     * them or reads the {@link #getMemoryUsage() memory usage} of this
+     * factory.
+     */
     public void clearLoggers()
     {
-        for(final TestLogger testLogger : loggers.values())
-        {
-            testLogger.clear();
-        }
-        loggingEvents.get().clear();
+        threadClearedAt.set(EventSequence.next());
+        loggingEvents.clear(allLoggingEvents);
     }
 
 
+    /**
+     * Clears the events and enabled levels of all threads in every logger, as
+     * {@link TestLogger#clearAll()} does, and in this factory. Takes the same
+     * time however many loggers there are: each logger is cleared the next
+     * time it is used, or the {@link #getMemoryUsage() memory usage} or
+     * {@link #getThreadEntryCount() thread entries} of this factory are read,
+     * whichever is first, so that the memory figures never include cleared
+     * events.
+     */
     public void clearAllLoggers()
     {
-        for(final TestLogger testLogger : loggers.values())
-        {
-            testLogger.clearAll();
-        }
+        clearAllEpoch.incrementAndGet();
         loggingEvents.reset();
         allLoggingEvents.clear();
+        spill.ifPresent(EventSpill::clear);
+    }
+
+
+    /**
+     * @return the number of times {@link #clearAllLoggers()} has been called
+     */
+    long getClearAllEpoch()
+    {
+        return clearAllEpoch.get();
+    }
+
+
+    /**
+     * @return the {@link LoggingEvent#getSequence() sequence} at which the
+     *         calling thread last called {@link #clearLoggers()}; loggers
+     *         ignore its events and enabled levels up to then
+     */
+    long getThreadClearedAt()
+    {
+        return threadClearedAt.get();
     }
 
 
@@ -149,20 +251,169 @@ public final class TestLoggerFactory implements ILoggerFactory
 
     public List<LoggingEvent> getLoggingEventsFromLoggers()
     {
-        return Collections.unmodifiableList(new ArrayList<LoggingEvent>(loggingEvents.get()));
+        return loggingEvents.snapshot(allLoggingEvents);
     }
 
 
+    /**
+     * @return all {@link LoggingEvent}s logged on any logger by ANY thread, as
+     *         an immutable snapshot in {@link LoggingEvent#getSequence()
+     *         sequence} order; as with {@link TestLogger#getAllLoggingEvents()}
+     *         an event another thread is still adding may be missing while
+     *         later ones are present
+     */
     public List<LoggingEvent> getAllLoggingEventsFromLoggers()
     {
-        return allLoggingEvents;
+        return allLoggingEvents.snapshot();
+    }
+
+
+    public long getDroppedLoggingEventCountFromLoggers()
+    {
+        return allLoggingEvents.getDroppedCount();
+    }
+
+
+    /**
+     * @return {@link TestLogger#getEventCounts()} for every logger, keyed by
+     *         logger name
+     */
+    public Map<String, Map<Level, Long>> getEventCountsFromLoggers()
+    {
+        final Map<String, Map<Level, Long>> counts = new TreeMap<>();
+        for(final TestLogger testLogger : loggers.values())
+        {
+            counts.put(testLogger.getName(), testLogger.getEventCounts());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+
+    /**
+     * @return an estimate, in bytes, of the heap retained by the
+     *         {@link LoggingEvent}s held by all loggers; the sum of
+     *         {@link TestLogger#getMemoryUsage()}, once each logger has
+     *         discarded the events cleared since it was last used
+     */
+    public long getMemoryUsage()
+    {
+        long total = 0L;
+        for(final TestLogger testLogger : loggers.values())
+        {
+            testLogger.reclaim();
+            total += testLogger.getMemoryUsage();
+        }
+        return total;
+    }
+
+
+    /**
+     * @return the number of entries held for individual threads by this
+     *         factory and all loggers; see
+     *         {@link TestLogger#getThreadEntryCount()}
+     */
+    public int getThreadEntryCount()
+    {
+        int total = loggingEvents.getHeldCount() + threadClearedAt.getHeldCount();
+        for(final TestLogger testLogger : loggers.values())
+        {
+            testLogger.reclaim();
+            total += testLogger.getThreadEntryCount();
+        }
+        return total;
+    }
+
+
+    /**
+     * @return the number of entries held for threads that have ended that
+     *         this factory and all loggers have reclaimed; see
+     *         {@link TestLogger#getReclaimedThreadEntryCount()}
+     */
+    public long getReclaimedThreadEntryCount()
+    {
+        long total = loggingEvents.getReclaimedCount() + threadClearedAt.getReclaimedCount();
+        for(final TestLogger testLogger : loggers.values())
+        {
+            total += testLogger.getReclaimedThreadEntryCount();
+        }
+        return total;
     }
 
 
-    void addLoggingEvent(final LoggingEvent event)
+    /**
+     * @return how many times less heap the {@link LoggingEvent}s held by all
+     *         loggers retain than they would uncompressed; see
+     *         {@link TestLogger#getCompressionRatio()}
+     */
+    public double getCompressionRatio()
     {
-        loggingEvents.get().add(event);
-        allLoggingEvents.add(event);
+        long uncompressed = 0L;
+        long estimated = 0L;
+        for(final TestLogger testLogger : loggers.values())
+        {
+            testLogger.reclaim();
+            uncompressed += testLogger.getUncompressedMemoryUsage();
+            estimated += testLogger.getMemoryUsage();
+        }
+        return TestLogger.compressionRatio(uncompressed, estimated);
+    }
+
+
+    /**
+     * @return {@link TestLogger#getMemoryUsage()} for every logger holding any
+     *         events, keyed by logger name, largest first
+     */
+    public Map<String, Long> getMemoryUsageByLogger()
+    {
+        final List<Map.Entry<String, Long>> usages = new ArrayList<>();
+        for(final TestLogger testLogger : loggers.values())
+        {
+            testLogger.reclaim();
+            final long usage = testLogger.getMemoryUsage();
+            if(usage > 0L)
+            {
+                usages.add(new SimpleImmutableEntry<>(testLogger.getName(), usage));
+            }
+        }
+        usages.sort(Map.Entry.<String, Long> comparingByValue().reversed());
+        final Map<String, Long> byLogger = new LinkedHashMap<>();
+        for(final Map.Entry<String, Long> usage : usages)
+        {
+            byLogger.put(usage.getKey(), usage.getValue());
+        }
+        return Collections.unmodifiableMap(byLogger);
+    }
+
+
+    public Map<Long, List<LoggingEvent>> getAllLoggingEventsFromLoggersByThread()
+    {
+        return ThreadMetadata.groupByThread(getAllLoggingEventsFromLoggers());
+    }
+
+
+    /**
+     * Adds an event created by a logger to the logger's store for all threads
+     * and to this factory's stores. If both stores for all threads append to
+     * buffers per thread the event is written once, to a buffer they share.
+     *
+     * @param loggerEvents
+     *            the logger's store for all threads
+     */
+    void addLoggingEvent(final LoggingEvent event,
+                         final EventStore<LoggingEvent> loggerEvents)
+    {
+        final EventStore<LoggingEvent> allThreads = allLoggingEvents;
+        if(loggerEvents instanceof PerThreadEventStore && allThreads instanceof PerThreadEventStore)
+        {
+            ((PerThreadEventStore) loggerEvents).add(event, (PerThreadEventStore) allThreads);
+        }
+        else
+        {
+            loggerEvents.add(event);
+            allThreads.add(event);
+        }
+        loggingEvents.add(event, allThreads);
+        CaptureScope.addToCurrent(event);
     }
 
 
@@ -171,19 +422,257 @@ public final class TestLoggerFactory implements ILoggerFactory
         this.printLevel = checkNotNull(printLevel);
     }
 
+
+    public EventClock getClock()
+    {
+        return clock;
+    }
+
+
+    /**
+     * @param clock
+     *            the clock that timestamps the {@link LoggingEvent}s created
+     *            from now on by this factory's loggers
+     */
+    public void setClock(final EventClock clock)
+    {
+        this.clock = checkNotNull(clock);
+    }
+
+    /**
+     * @param level
+     *            the level whose rate is wanted
+     * @return the sampling rate of level for loggers that have not had one set
+     * @see TestLogger#getSamplingRate(Level)
+     */
+    public double getDefaultSamplingRate(final Level level)
+    {
+        return defaultSamplingRates[level.ordinal()];
+    }
+
+
+    /**
+     * @param level
+     *            the level to sample
+     * @param rate
+     *            between 0 (capture no events) and 1 (capture every event),
+     *            the sampling rate of level for all loggers that have not had
+     *            one set
+     * @see TestLogger#setSamplingRate(Level, double)
+     */
+    public void setDefaultSamplingRate(final Level level,
+                                       final double rate)
+    {
+        TestLogger.checkSamplingRate(level, rate);
+        final double[] newRates = defaultSamplingRates.clone();
+        newRates[level.ordinal()] = rate;
+        defaultSamplingRates = newRates;
+    }
+
+
+    private static double[] allSampled()
+    {
+        final double[] rates = new double[Level.values().length];
+        Arrays.fill(rates, 1.0);
+        return rates;
+    }
+
+
+    public CaptureMode getCaptureMode()
+    {
+        return captureMode;
+    }
+
+
+    public int getCaptureCapacity()
+    {
+        return captureCapacity;
+    }
+
+
+    /**
+     * @param captureMode
+     *            how logging events are kept from now on, by this factory and
+     *            all its loggers
+     * @see #setCaptureMode(CaptureMode, int)
+     */
+    public void setCaptureMode(final CaptureMode captureMode)
+    {
+        setCaptureMode(captureMode, captureCapacity);
+    }
+
+
+    /**
+     * Changes how logging events are kept from now on, by this factory and all
+     * its loggers. All logging events captured so far are discarded.
+     *
+     * @param captureMode
+     *            how logging events are kept
+     * @param captureCapacity
+     *            the maximum number of events each store keeps, where the
+     *            mode is bounded
+     */
+    public synchronized void setCaptureMode(final CaptureMode captureMode,
+                                            final int captureCapacity)
+    {
+        checkArgument(captureCapacity > 0, "capture capacity must be positive, was %s", captureCapacity);
+        this.captureCapacity = captureCapacity;
+        this.captureMode = checkNotNull(captureMode);
+        replaceEventStores();
+    }
+
+
+    public RetentionPolicy getRetentionPolicy()
+    {
+        return retentionPolicy;
+    }
+
+
+    /**
+     * Sets the limits on the events kept by every logger that does not have
+     * its own {@link TestLogger#setRetentionPolicy(RetentionPolicy) retention
+     * policy}, and on the events kept by this factory. Only applies in
+     * {@link CaptureMode#UNBOUNDED}. All logging events captured so far are
+     * discarded.
+     *
+     * @param retentionPolicy
+     *            the limits, and what to do when they are reached
+     */
+    public synchronized void setRetentionPolicy(final RetentionPolicy retentionPolicy)
+    {
+        this.retentionPolicy = checkNotNull(retentionPolicy);
+        replaceEventStores();
+    }
+
+
+    /**
+     * @return the estimated heap, in bytes, the events held by all loggers,
+     *         and by this factory, may retain before the oldest are spilled
+     *         to disk; 0 if events are never spilled
+     */
+    public long getSpillThreshold()
+    {
+        return spillThreshold;
+    }
+
+
+    /**
+     * Moves the oldest events to a journal in a temporary directory once the
+     * events held on the heap, by all loggers and this factory together, are
+     * estimated to retain more than the given number of bytes. Each event is
+     * written once, however many loggers' and threads' events it is among.
+     * The events returned by {@link #getAllLoggingEvents()} and the other
+     * accessors include those spilled, read back from disk; arguments other
+     * than strings are kept on the heap, so that they are read back as the
+     * same objects. If the journal cannot be written the events are kept on
+     * the heap. Only applies in {@link CaptureMode#UNBOUNDED}, to loggers
+     * without a {@link RetentionPolicy}. All logging events captured so far
+     * are discarded.
+     *
+     * @param spillThreshold
+     *            the threshold in bytes, or 0, the default, to keep all
+     *            events on the heap
+     */
+    public synchronized void setSpillThreshold(final long spillThreshold)
+    {
+        checkArgument(spillThreshold >= 0, "spill threshold must not be negative, was %s", spillThreshold);
+        final Optional<EventSpill> replaced = spill;
+        this.spillThreshold = spillThreshold;
+        this.spill = spillThreshold == 0
+                ? Optional.<EventSpill> empty()
+                : Optional.of(new EventSpill(spillThreshold, journalDirectory::call));
+        replaceEventStores();
+        replaced.ifPresent(EventSpill::clear);
+    }
+
+
+    public ThreadStorage getThreadStorage()
+    {
+        return threadStorage;
+    }
+
+
+    /**
+     * Sets how the events of each thread are kept, by the loggers and this
+     * factory. All events captured so far, by all loggers, are discarded.
+     */
+    public synchronized void setThreadStorage(final ThreadStorage threadStorage)
+    {
+        this.threadStorage = checkNotNull(threadStorage);
+        replaceEventStores();
+    }
+
+
+    private static Path createJournalDirectory() throws IOException
+    {
+        final Path directory = Files.createTempDirectory("slf4j-test");
+        directory.toFile().deleteOnExit();
+        return directory;
+    }
+
+
+    private void replaceEventStores()
+    {
+        for(final TestLogger testLogger : loggers.values())
+        {
+            testLogger.replaceEventStores();
+        }
+        final EventStore<LoggingEvent> replaced = allLoggingEvents;
+        allLoggingEvents = newAllThreadsEventStore(retentionPolicy.dropping());
+        replaced.clear();
+        loggingEvents.reset();
+    }
+
+
+    /**
+     * @return a store for events from all threads; unless something bounds
+     *         it, one to which each thread appends without contending with
+     *         the others
+     */
+    EventStore<LoggingEvent> newAllThreadsEventStore(final RetentionPolicy policy)
+    {
+        if(captureMode == CaptureMode.UNBOUNDED && policy.isUnlimited() && spillThreshold == 0)
+        {
+            return new PerThreadEventStore();
+        }
+        return newEventStore(policy);
+    }
+
+
+    EventStore<LoggingEvent> newEventStore(final RetentionPolicy policy)
+    {
+        if(captureMode == CaptureMode.UNBOUNDED && !policy.isUnlimited())
+        {
+            return new RetainingEventStore(policy);
+        }
+        final Optional<EventSpill> currentSpill = spill;
+        if(captureMode == CaptureMode.UNBOUNDED && currentSpill.isPresent())
+        {
+            return new SpillingEventStore(currentSpill.get());
+        }
+        return captureMode.newEventStore(captureCapacity);
+    }
+
     @SuppressWarnings("PMD.AccessorClassGeneration")
     private static class TestLoggerFactoryMaker implements
             Callable<TestLoggerFactory>
     {
         @Override
         public TestLoggerFactory call() throws IOException
+        {
+            final OverridableProperties properties = new OverridableProperties("slf4jtest");
+            return new TestLoggerFactory(printLevel(properties),
+                                         captureMode(properties),
+                                         captureCapacity(properties));
+        }
+
+
+        private static Level printLevel(final OverridableProperties properties)
         {
             try
             {
-                final String level = new OverridableProperties("slf4jtest")
-                        .getProperty("print.level", "OFF");
-                final Level printLevel = Level.valueOf(level);
-                return new TestLoggerFactory(printLevel);
+                final String level = properties.getProperty("print.level", "OFF");
+                return Level.valueOf(level);
             }
             catch(IllegalArgumentException e)
             {
@@ -192,5 +681,40 @@ public final class TestLoggerFactory implements ILoggerFactory
                                                 e);
             }
         }
+
+
+        private static CaptureMode captureMode(final OverridableProperties properties)
+        {
+            try
+            {
+                final String mode = properties.getProperty("capture.mode", CaptureMode.UNBOUNDED.name());
+                return CaptureMode.valueOf(mode);
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IllegalStateException("Invalid capture mode in property capture.mode of file slf4jtest.properties "
+                                                        + "or System property slf4jtest.capture.mode",
+                                                e);
+            }
+        }
+
+
+        private static int captureCapacity(final OverridableProperties properties)
+        {
+            try
+            {
+                final String capacity = properties.getProperty("capture.capacity",
+                                                               String.valueOf(DEFAULT_CAPTURE_CAPACITY));
+                final int captureCapacity = Integer.parseInt(capacity);
+                checkArgument(captureCapacity > 0, "capture capacity must be positive, was %s", captureCapacity);
+                return captureCapacity;
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IllegalStateException("Invalid capacity in property capture.capacity of file slf4jtest.properties "
+                                                        + "or System property slf4jtest.capture.capacity",
+                                                e);
+            }
+        }
     }
 }
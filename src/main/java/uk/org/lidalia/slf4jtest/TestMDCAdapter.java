@@ -7,14 +7,21 @@ import java.util.Optional;
 
 import org.slf4j.spi.MDCAdapter;
 
-import uk.org.lidalia.lang.ThreadLocal;
+import com.google.common.collect.ImmutableMap;
 
 
+/**
+ * {@link MDCAdapter} that keeps, per thread, an immutable snapshot of the
+ * context map alongside the mutable map itself. The snapshot is only rebuilt
+ * after {@link #put(String, String)}, {@link #remove(String)},
+ * {@link #clear()} or {@link #setContextMap(Map)} have actually changed the
+ * map, so {@link #getCopyOfContextMap()} returns the same instance - and
+ * {@link LoggingEvent}s share it - for as long as the context is unchanged.
+ */
 public class TestMDCAdapter implements MDCAdapter
 {
 
-    private final ThreadLocal<Map<String, String>> value = new ThreadLocal<>(Suppliers
-            .<String, String> makeEmptyMutableMap());
+    private final ResettableThreadLocal<Context> value = new ResettableThreadLocal<>(() -> new Context());
 
 
     @Override
@@ -28,7 +35,7 @@ public class TestMDCAdapter implements MDCAdapter
     @Override
     public String get(final String key)
     {
-        return value.get().get(key);
+        return value.get().values.get(key);
     }
 
 
@@ -49,7 +56,7 @@ public class TestMDCAdapter implements MDCAdapter
     @Override
     public Map<String, String> getCopyOfContextMap()
     {
-        return Collections.unmodifiableMap(new HashMap<String, String>(value.get()));
+        return value.get().snapshot();
     }
 
 
@@ -57,6 +64,97 @@ public class TestMDCAdapter implements MDCAdapter
     @Override
     public void setContextMap(@SuppressWarnings("rawtypes") final Map contextMap)
     {
-        value.set(new HashMap<String, String>(contextMap));
+        value.set(new Context(contextMap));
+    }
+
+
+    /**
+     * @return the number of threads whose context maps are held; those of
+     *         threads that have ended are released once collected
+     */
+    public int getThreadEntryCount()
+    {
+        return value.getHeldCount();
+    }
+
+
+    /**
+     * @return the number of context maps of threads that have ended that
+     *         have been reclaimed
+     */
+    public long getReclaimedThreadEntryCount()
+    {
+        return value.getReclaimedCount();
+    }
+
+
+    private static final class Context
+    {
+
+        private final Map<String, String> values;
+        private Map<String, String> snapshot;
+
+
+        Context()
+        {
+            this.values = new HashMap<>();
+            this.snapshot = ImmutableMap.of();
+        }
+
+
+        Context(final Map<String, String> contextMap)
+        {
+            this.values = new HashMap<>(contextMap);
+        }
+
+
+        void put(final String key,
+                 final String val)
+        {
+            if(!val.equals(values.put(key, val)))
+            {
+                snapshot = null;
+            }
+        }
+
+
+        void remove(final String key)
+        {
+            if(values.containsKey(key))
+            {
+                values.remove(key);
+                snapshot = null;
+            }
+        }
+
+
+        void clear()
+        {
+            if(!values.isEmpty())
+            {
+                values.clear();
+                snapshot = null;
+            }
+        }
+
+
+        Map<String, String> snapshot()
+        {
+            if(snapshot == null)
+            {
+                snapshot = immutableCopyOf(values);
+            }
+            return snapshot;
+        }
+
+
+        private static Map<String, String> immutableCopyOf(final Map<String, String> values)
+        {
+            if(values.containsKey(null) || values.containsValue(null))
+            {
+                return Collections.unmodifiableMap(new HashMap<String, String>(values));
+            }
+            return ImmutableMap.copyOf(values);
+        }
     }
 }
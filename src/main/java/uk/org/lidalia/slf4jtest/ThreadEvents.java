@@ -0,0 +1,218 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import com.google.common.base.Supplier;
+
+
+/**
+ * The {@link LoggingEvent}s of each thread for a {@link TestLogger} or the
+ * {@link TestLoggerFactory}, kept as its {@link ThreadStorage} says.
+ * <p/>
+ * Under {@link ThreadStorage#THREAD_LOCAL} each thread's events are added to
+ * a store of its own, unless the store for all threads is
+ * {@link EventStore#isIndexedByThread() indexed by thread}, in which case
+ * the thread's events are read from that index, or
+ * {@link EventStore#isBounded() bounded}, in which case they are read out of
+ * it as under {@link ThreadStorage#SHARED}. Under
+ * {@link ThreadStorage#SHARED} nothing is added; a thread's events are read
+ * out of the store for all threads. Unless they are in a store of the
+ * thread's own, clearing a thread's events records the last
+ * {@link EventSequence sequence number} handed out, so that only later
+ * events are read.
+ * <p/>
+ * A thread's events may also be cleared by other means, such as
+ * {@link TestLoggerFactory#clearLoggers()}, which only record the sequence
+ * they were cleared at. Events read out of the store for all threads are
+ * then hidden; a store of the thread's own is discarded the next time the
+ * thread uses it, so that it does not hold events no one can read.
+ */
+final class ThreadEvents
+{
+
+    private static final Long NOT_CLEARED = 0L;
+
+    private final Supplier<ThreadStorage> storage;
+    private final LongSupplier clearedAt;
+    private final ResettableThreadLocal<OwnStore> stores;
+    private final ResettableThreadLocal<Long> clearedAfter = new ResettableThreadLocal<>(NOT_CLEARED);
+
+
+    /**
+     * @param storage
+     *            supplies the current thread storage
+     * @param storeCreator
+     *            creates the store for each thread, under
+     *            {@link ThreadStorage#THREAD_LOCAL}
+     */
+    ThreadEvents(final Supplier<ThreadStorage> storage,
+                 final Supplier<EventStore<LoggingEvent>> storeCreator)
+    {
+        this(storage, storeCreator, () -> NOT_CLEARED);
+    }
+
+
+    /**
+     * @param storage
+     *            supplies the current thread storage
+     * @param storeCreator
+     *            creates the store for each thread, under
+     *            {@link ThreadStorage#THREAD_LOCAL}
+     * @param clearedAt
+     *            supplies the sequence at which the calling thread's events
+     *            were last cleared by other means
+     */
+    ThreadEvents(final Supplier<ThreadStorage> storage,
+                 final Supplier<EventStore<LoggingEvent>> storeCreator,
+                 final LongSupplier clearedAt)
+    {
+        this.storage = checkNotNull(storage);
+        this.clearedAt = checkNotNull(clearedAt);
+        checkNotNull(storeCreator);
+        this.stores = new ResettableThreadLocal<>(() -> new OwnStore(storeCreator.get()));
+    }
+
+
+    /**
+     * @param allThreads
+     *            the store for all threads, to which the event has been added
+     */
+    void add(final LoggingEvent event,
+             final EventStore<LoggingEvent> allThreads)
+    {
+        if(hasOwnStores(allThreads))
+        {
+            ownStore().add(event);
+        }
+    }
+
+
+    /**
+     * @param allThreads
+     *            the store for all threads
+     * @return the calling thread's events since they were last cleared
+     */
+    List<LoggingEvent> snapshot(final EventStore<LoggingEvent> allThreads)
+    {
+        if(hasOwnStores(allThreads))
+        {
+            return ownStore().snapshot();
+        }
+        final long after = Math.max(clearedAfter.get(), clearedAt.getAsLong());
+        if(allThreads.isIndexedByThread())
+        {
+            return LoggingEvents.after(allThreads.currentThreadSnapshot(), after);
+        }
+        return ThreadMetadata.loggedByCurrentThread(allThreads.snapshot(), after);
+    }
+
+
+    /**
+     * Discards the calling thread's events.
+     *
+     * @param allThreads
+     *            the store for all threads
+     */
+    void clear(final EventStore<LoggingEvent> allThreads)
+    {
+        if(hasOwnStores(allThreads))
+        {
+            ownStore().clear();
+        }
+        else
+        {
+            clearedAfter.set(EventSequence.last());
+        }
+    }
+
+
+    /**
+     * Discards the calling thread's events if they have been cleared by
+     * other means since it last used its store.
+     *
+     * @param allThreads
+     *            the store for all threads
+     */
+    void reclaim(final EventStore<LoggingEvent> allThreads)
+    {
+        if(hasOwnStores(allThreads))
+        {
+            ownStore();
+        }
+    }
+
+
+    /**
+     * @return the number of threads for which state is held
+     */
+    int getHeldCount()
+    {
+        return stores.getHeldCount() + clearedAfter.getHeldCount();
+    }
+
+
+    /**
+     * @return the number of entries for threads that have ended that have
+     *         been reclaimed
+     */
+    long getReclaimedCount()
+    {
+        return stores.getReclaimedCount() + clearedAfter.getReclaimedCount();
+    }
+
+
+    /**
+     * Discards the events of all threads.
+     */
+    void reset()
+    {
+        stores.reset();
+        clearedAfter.reset();
+    }
+
+
+    /**
+     * @return the calling thread's store, emptied first if its events have
+     *         been cleared by other means since it was last used
+     */
+    private EventStore<LoggingEvent> ownStore()
+    {
+        final OwnStore own = stores.get();
+        final long at = clearedAt.getAsLong();
+        if(at > own.reclaimedAt)
+        {
+            own.events.clear();
+            own.reclaimedAt = at;
+        }
+        return own.events;
+    }
+
+
+    private boolean hasOwnStores(final EventStore<LoggingEvent> allThreads)
+    {
+        return storage.get() == ThreadStorage.THREAD_LOCAL
+               && !allThreads.isIndexedByThread()
+               && !allThreads.isBounded();
+    }
+
+
+    /**
+     * A thread's own store, and the sequence up to which its events were
+     * last discarded for having been cleared by other means.
+     */
+    private static final class OwnStore
+    {
+
+        private final EventStore<LoggingEvent> events;
+        private long reclaimedAt = NOT_CLEARED;
+
+
+        private OwnStore(final EventStore<LoggingEvent> events)
+        {
+            this.events = checkNotNull(events);
+        }
+    }
+}
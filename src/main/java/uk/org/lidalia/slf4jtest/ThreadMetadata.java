@@ -0,0 +1,95 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The identity of the thread that created a {@link LoggingEvent}. Each thread
+ * caches its own instance, which all the events it creates share, so creating
+ * an event costs a thread local lookup rather than a copy of the thread's
+ * name; a new instance is only made if the thread has been renamed.
+ */
+final class ThreadMetadata
+{
+
+    private static final java.lang.ThreadLocal<ThreadMetadata> CURRENT = new java.lang.ThreadLocal<>();
+
+
+    static ThreadMetadata current()
+    {
+        final Thread thread = Thread.currentThread();
+        final String name = thread.getName();
+        final ThreadMetadata cached = CURRENT.get();
+        if(cached != null && cached.name.equals(name))
+        {
+            return cached;
+        }
+        final ThreadMetadata metadata = new ThreadMetadata(thread.getId(), name);
+        CURRENT.set(metadata);
+        return metadata;
+    }
+
+
+    /**
+     * @return events, grouped by {@link LoggingEvent#getThreadId()} in the
+     *         order in which each thread's first event appears
+     */
+    static Map<Long, List<LoggingEvent>> groupByThread(final List<LoggingEvent> events)
+    {
+        final Map<Long, List<LoggingEvent>> byThread = new LinkedHashMap<>();
+        for(final LoggingEvent event : events)
+        {
+            byThread.computeIfAbsent(event.getThreadId(), id -> new ArrayList<>()).add(event);
+        }
+        byThread.replaceAll((id, threadEvents) -> Collections.unmodifiableList(threadEvents));
+        return Collections.unmodifiableMap(byThread);
+    }
+
+
+    /**
+     * @return an immutable list of those of the events created by the calling
+     *         thread with a {@link LoggingEvent#getSequence() sequence
+     *         number} greater than the given one
+     */
+    static List<LoggingEvent> loggedByCurrentThread(final List<LoggingEvent> events,
+                                                    final long afterSequence)
+    {
+        final long id = Thread.currentThread().getId();
+        final List<LoggingEvent> logged = new ArrayList<>();
+        for(final LoggingEvent event : events)
+        {
+            if(event.getThreadId() == id && event.getSequence() > afterSequence)
+            {
+                logged.add(event);
+            }
+        }
+        return Collections.unmodifiableList(logged);
+    }
+
+    private final long id;
+    private final String name;
+
+
+    private ThreadMetadata(final long id,
+                           final String name)
+    {
+        this.id = id;
+        this.name = name;
+    }
+
+
+    long getId()
+    {
+        return id;
+    }
+
+
+    String getName()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,39 @@
+package uk.org.lidalia.slf4jtest;
+
+
+/**
+ * How {@link TestLogger}s, and the {@link TestLoggerFactory}, keep the
+ * {@link LoggingEvent}s of each thread, as returned by
+ * {@link TestLogger#getLoggingEvents()} and
+ * {@link TestLoggerFactory#getLoggingEvents()}. Set via
+ * {@link TestLoggerFactory#setThreadStorage(ThreadStorage)}.
+ */
+public enum ThreadStorage
+{
+
+    /**
+     * Each thread's events can be read without reading those of other
+     * threads. Under {@link CaptureMode#UNBOUNDED} with no retention policy
+     * or spilling, the stores for all threads index their events by thread,
+     * and each event is written once, to a buffer of the logging thread that
+     * the logger and factory share. Otherwise each logger, and the factory,
+     * keeps a store of events for each thread that logs to it, as well as
+     * the store for all threads, which every thread that logs holds until it
+     * ends. The default.
+     */
+    THREAD_LOCAL,
+
+    /**
+     * Events are only kept in the stores for all threads, and a thread's
+     * events are found by reading through them; logging creates no state for
+     * the thread. Intended for code that logs from very many short lived
+     * threads, such as virtual threads, which may be alive at once. A thread
+     * that clears its events only records the point it cleared them at.
+     * <p/>
+     * Reads of a thread's events cost a pass over the events of all threads,
+     * and only see those the all threads stores have kept. A
+     * {@link CaptureScope} gives the events of a piece of work without that
+     * pass, whichever threads it runs on.
+     */
+    SHARED
+}
@@ -0,0 +1,174 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Runs tasks at, or shortly after, a deadline, on a single daemon thread.
+ * <p/>
+ * A hashed timer wheel: time is divided into ticks, and a task is placed in
+ * the bucket for the tick its deadline falls in, along with the number of
+ * times round the wheel to wait first. Scheduling is a lock free enqueue, and
+ * each tick only visits the tasks in one bucket, so the cost does not depend
+ * on how many tasks are waiting. Tasks are run on the wheel's thread and
+ * should be short; a {@link RuntimeException} thrown by one is ignored.
+ */
+final class TimerWheel
+{
+
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int DEFAULT_WHEEL_SIZE = 256;
+
+
+    static TimerWheel shared()
+    {
+        return SharedHolder.INSTANCE;
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<Timeout>[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final String threadName;
+    private volatile long startNanos;
+
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    TimerWheel(final long tickNanos,
+               final int wheelSize,
+               final String threadName)
+    {
+        checkArgument(tickNanos > 0, "tickNanos must be positive, was %s", tickNanos);
+        checkArgument(Integer.bitCount(wheelSize) == 1, "wheelSize must be a power of two, was %s", wheelSize);
+        this.tickNanos = tickNanos;
+        this.mask = wheelSize - 1;
+        this.buckets = new Queue[wheelSize];
+        for(int i = 0; i < wheelSize; i++)
+        {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.threadName = checkNotNull(threadName);
+    }
+
+
+    /**
+     * @param deadlineNanos
+     *            the {@link System#nanoTime()} at which to run task
+     * @param task
+     *            run no earlier than deadlineNanos, and usually within a tick
+     *            of it
+     */
+    void schedule(final long deadlineNanos,
+                  final Runnable task)
+    {
+        pending.add(new Timeout(deadlineNanos, checkNotNull(task)));
+        if(!started.get() && started.compareAndSet(false, true))
+        {
+            startNanos = System.nanoTime();
+            final Thread worker = new Thread(this::run, threadName);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+
+    private void run()
+    {
+        final long start = startNanos;
+        for(long tick = 0;; tick++)
+        {
+            waitForEndOf(start, tick);
+            transferPending(start, tick);
+            expire(buckets[(int) (tick & mask)]);
+        }
+    }
+
+
+    private void waitForEndOf(final long start,
+                              final long tick)
+    {
+        final long end = start + (tick + 1) * tickNanos;
+        for(long remaining = end - System.nanoTime(); remaining > 0; remaining = end - System.nanoTime())
+        {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+
+    private void transferPending(final long start,
+                                 final long tick)
+    {
+        for(Timeout timeout = pending.poll(); timeout != null; timeout = pending.poll())
+        {
+            final long deadlineTick = Math.max(tick, (timeout.deadlineNanos - start + tickNanos - 1) / tickNanos);
+            timeout.rounds = (deadlineTick - tick) / buckets.length;
+            buckets[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+
+    private static void expire(final Queue<Timeout> bucket)
+    {
+        for(final Iterator<Timeout> timeouts = bucket.iterator(); timeouts.hasNext();)
+        {
+            final Timeout timeout = timeouts.next();
+            if(timeout.rounds > 0)
+            {
+                timeout.rounds--;
+            }
+            else
+            {
+                timeouts.remove();
+                timeout.run();
+            }
+        }
+    }
+
+
+    private static final class Timeout
+    {
+
+        private final long deadlineNanos;
+        private final Runnable task;
+        private long rounds;
+
+
+        Timeout(final long deadlineNanos,
+                final Runnable task)
+        {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+
+        void run()
+        {
+            try
+            {
+                task.run();
+            }
+            catch(final RuntimeException ignored)
+            {
+                // one failing task must not stop the others being run
+            }
+        }
+    }
+
+
+    private static final class SharedHolder
+    {
+        private static final TimerWheel INSTANCE = new TimerWheel(DEFAULT_TICK_NANOS,
+                                                                  DEFAULT_WHEEL_SIZE,
+                                                                  "slf4j-test-timer");
+    }
+}
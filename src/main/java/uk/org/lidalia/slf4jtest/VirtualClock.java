@@ -0,0 +1,69 @@
+package uk.org.lidalia.slf4jtest;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * An {@link EventClock} whose time is controlled by the test; it does not move
+ * unless {@link #advance(Duration)} or {@link #set(Instant)} is called. Safe
+ * for use by multiple threads.
+ */
+public final class VirtualClock implements EventClock
+{
+
+    private final AtomicLong epochNanos;
+
+
+    VirtualClock(final Instant start)
+    {
+        this.epochNanos = new AtomicLong(EventClocks.toEpochNanos(checkNotNull(start)));
+    }
+
+
+    /**
+     * @return the time this clock is currently at
+     */
+    public Instant now()
+    {
+        return EventClocks.ofEpochNanos(epochNanos.get());
+    }
+
+
+    /**
+     * @param duration
+     *            the amount to move this clock on by; may be negative
+     * @return the time this clock is now at
+     */
+    public Instant advance(final Duration duration)
+    {
+        return EventClocks.ofEpochNanos(epochNanos.addAndGet(duration.toNanos()));
+    }
+
+
+    /**
+     * @param instant
+     *            the time to move this clock to
+     */
+    public void set(final Instant instant)
+    {
+        epochNanos.set(EventClocks.toEpochNanos(checkNotNull(instant)));
+    }
+
+
+    @Override
+    public long tick()
+    {
+        return epochNanos.get();
+    }
+
+
+    @Override
+    public Instant toInstant(final long tick)
+    {
+        return EventClocks.ofEpochNanos(tick);
+    }
+}
@@ -0,0 +1,222 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.info;
+
+public class CaptureScopeTests {
+
+    private final TestLogger logger = TestLoggerFactory.getTestLogger("capture.scope");
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        TestLoggerFactory.clearAll();
+    }
+
+    @Test
+    public void capturesEventsOnOpeningThread() {
+        logger.info("before");
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            logger.info("inside");
+            assertEquals(asList(info("inside")), scope.getEvents());
+        }
+    }
+
+    @Test
+    public void closedScopeCapturesNoMoreEvents() {
+        final CaptureScope scope = TestLoggerFactory.openScope();
+        logger.info("inside");
+        scope.close();
+        logger.info("after");
+
+        assertTrue(scope.isClosed());
+        assertEquals(asList(info("inside")), scope.getEvents());
+    }
+
+    @Test
+    public void doesNotCaptureEventsOfOtherThreads() throws Exception {
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("elsewhere");
+                }
+            }).get();
+            assertEquals(Collections.emptyList(), scope.getEvents());
+        }
+    }
+
+    @Test
+    public void wrappedTaskRunsInScope() throws Exception {
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            executor.submit(scope.wrap(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("wrapped");
+                }
+            })).get();
+            assertEquals(asList(info("wrapped")), scope.getEvents());
+        }
+    }
+
+    @Test
+    public void wrappedCallableRunsInScope() throws Exception {
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            final String result = executor.submit(scope.wrap(new Callable<String>() {
+                @Override
+                public String call() {
+                    logger.info("called");
+                    return "result";
+                }
+            })).get();
+            assertEquals("result", result);
+            assertEquals(asList(info("called")), scope.getEvents());
+        }
+    }
+
+    @Test
+    public void propagatingExecutorServiceCarriesScopeOfSubmitter() throws Exception {
+        final ExecutorService propagating = CaptureScope.propagating(executor);
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            propagating.invokeAll(asList(task("one"), task("two")));
+            propagating.submit(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("three");
+                }
+            }).get();
+            assertEquals(3, scope.getEvents().size());
+            assertTrue(scope.getEvents().containsAll(asList(info("one"), info("two"), info("three"))));
+        }
+        propagating.submit(task("unscoped")).get();
+    }
+
+    @Test
+    public void propagatingExecutorCarriesScopeOfSubmitter() throws Exception {
+        final Executor propagating = CaptureScope.propagating((Executor) executor);
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            scope.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("async");
+                }
+            }, propagating).get();
+            assertEquals(asList(info("async")), scope.getEvents());
+        }
+    }
+
+    @Test
+    public void completableFutureHelpersRunInScope() throws Exception {
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            final String result = scope.supplyAsync(new java.util.function.Supplier<String>() {
+                @Override
+                public String get() {
+                    logger.info("supplied");
+                    return "value";
+                }
+            }, executor).get();
+            scope.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("ran");
+                }
+            }).get();
+            assertEquals("value", result);
+            assertEquals(asList(info("supplied"), info("ran")), scope.getEvents());
+        }
+    }
+
+    @Test
+    public void poolThreadLeavesScopeAfterTask() throws Exception {
+        final ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            try (CaptureScope scope = TestLoggerFactory.openScope()) {
+                single.submit(scope.wrap(task("scoped"))).get();
+                single.submit(task("unscoped")).get();
+                assertEquals(asList(info("scoped")), scope.getEvents());
+            }
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void nestedScopeEventsAreAlsoCapturedByOuterScope() {
+        try (CaptureScope outer = TestLoggerFactory.openScope()) {
+            logger.info("outer");
+            try (CaptureScope inner = TestLoggerFactory.openScope()) {
+                logger.info("inner");
+                assertEquals(asList(info("inner")), inner.getEvents());
+            }
+            logger.info("outer again");
+            assertEquals(asList(info("outer"), info("inner"), info("outer again")), outer.getEvents());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotCloseOuterScopeBeforeInner() {
+        try (CaptureScope outer = TestLoggerFactory.openScope()) {
+            final CaptureScope inner = TestLoggerFactory.openScope();
+            try {
+                outer.close();
+            } finally {
+                inner.close();
+            }
+        }
+    }
+
+    @Test
+    public void cannotCloseScopeFromAnotherThread() throws Exception {
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            final Throwable thrown = executor.submit(new Callable<Throwable>() {
+                @Override
+                public Throwable call() {
+                    try {
+                        scope.close();
+                        return null;
+                    } catch (IllegalStateException expected) {
+                        return expected;
+                    }
+                }
+            }).get();
+            assertTrue(thrown instanceof IllegalStateException);
+            assertFalse(scope.isClosed());
+        }
+    }
+
+    @Test
+    public void eventsAreStillAddedToLoggers() {
+        logger.clear();
+        try (CaptureScope scope = TestLoggerFactory.openScope()) {
+            logger.info("both");
+            final List<LoggingEvent> events = logger.getLoggingEvents();
+            assertEquals(events, scope.getEvents());
+        }
+    }
+
+    private Callable<Object> task(final String message) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                logger.info(message);
+                return null;
+            }
+        };
+    }
+}
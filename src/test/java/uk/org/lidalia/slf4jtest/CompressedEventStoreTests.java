@@ -0,0 +1,140 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.info;
+
+public class CompressedEventStoreTests {
+
+    private final List<Runnable> compressions = new ArrayList<>();
+    private final CompressedEventStore store = new CompressedEventStore(compressions::add);
+
+    @Test
+    public void emptyStoreHasEmptySnapshot() {
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, store.getEstimatedSize());
+    }
+
+    @Test
+    public void sealsFullSegmentsForCompression() {
+        add(events(CompressedEventStore.SEGMENT_SIZE * 2 + 1));
+
+        assertEquals(2, compressions.size());
+    }
+
+    @Test
+    public void readsSegmentsBeforeAndAfterCompression() {
+        final List<LoggingEvent> events = events(CompressedEventStore.SEGMENT_SIZE * 2 + 10);
+        add(events);
+        final List<LoggingEvent> beforeCompression = store.snapshot();
+        compress();
+
+        assertEquals(events, beforeCompression);
+        assertEquals(events, store.snapshot());
+    }
+
+    @Test
+    public void compressedEventsKeepTheirArgumentsAndThrowables() {
+        final Object argument = new Object();
+        final Throwable throwable = new Exception();
+        final List<LoggingEvent> events = new ArrayList<>(events(CompressedEventStore.SEGMENT_SIZE - 1));
+        events.add(0, info(throwable, "message {}", argument));
+        add(events);
+        final LoggingEvent beforeCompression = store.snapshot().get(0);
+        compress();
+        final LoggingEvent afterCompression = store.snapshot().get(0);
+
+        assertEquals(beforeCompression, afterCompression);
+        assertSame(argument, afterCompression.getArguments().get(0));
+        assertSame(throwable, afterCompression.getThrowable().get());
+    }
+
+    @Test
+    public void compressionReducesEstimatedSizeButNotUncompressedSize() {
+        add(events(CompressedEventStore.SEGMENT_SIZE));
+        final long uncompressed = store.getEstimatedSize();
+        compress();
+
+        assertEquals(uncompressed, store.getUncompressedSize());
+        assertTrue(store.getEstimatedSize() * 10 < uncompressed);
+    }
+
+    @Test
+    public void compressionStillCountsTheThrowablesItKeeps() {
+        final List<LoggingEvent> events = new ArrayList<>();
+        long referenced = 0;
+        for (int i = 0; i < CompressedEventStore.SEGMENT_SIZE; i++) {
+            final LoggingEvent event = info(new Exception(), "message {}", new Exception());
+            events.add(event);
+            referenced += event.estimateReferencedSize();
+        }
+        add(events);
+        compress();
+
+        assertTrue(referenced > 0);
+        assertTrue(store.getEstimatedSize() >= referenced);
+        assertTrue(store.getEstimatedSize() < store.getUncompressedSize());
+    }
+
+    @Test
+    public void clearDiscardsEventsAndSizes() {
+        add(events(CompressedEventStore.SEGMENT_SIZE + 1));
+        final List<LoggingEvent> snapshot = store.snapshot();
+        store.clear();
+        compress();
+
+        assertEquals(events(CompressedEventStore.SEGMENT_SIZE + 1), snapshot);
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, store.getEstimatedSize());
+        assertEquals(0, store.getUncompressedSize());
+    }
+
+    @Test
+    public void addsAfterClearAreReadBack() {
+        add(events(CompressedEventStore.SEGMENT_SIZE));
+        store.clear();
+        add(asList(info("after clear")));
+
+        assertEquals(asList(info("after clear")), store.snapshot());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsImmutable() {
+        store.add(info("message"));
+        store.snapshot().clear();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void snapshotRejectsIndexOutOfRange() {
+        store.add(info("message"));
+        store.snapshot().get(1);
+    }
+
+    private void add(final List<LoggingEvent> events) {
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+    }
+
+    private void compress() {
+        for (final Runnable compression : compressions) {
+            compression.run();
+        }
+    }
+
+    private static List<LoggingEvent> events(final int count) {
+        final List<LoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(info("message {}", String.valueOf(i % 100)));
+        }
+        return events;
+    }
+}
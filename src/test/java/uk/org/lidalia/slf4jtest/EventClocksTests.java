@@ -0,0 +1,74 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.test.Assert.isNotInstantiable;
+
+public class EventClocksTests {
+
+    @Test
+    public void systemClockIsWallClockTime() {
+        final Instant before = Instant.now();
+        final Instant timestamp = tickAndConvert(EventClocks.system());
+        final Instant after = Instant.now();
+        assertFalse(timestamp.isBefore(before));
+        assertFalse(timestamp.isAfter(after));
+    }
+
+    @Test
+    public void coarseClockHasMillisecondPrecision() {
+        final Instant before = Instant.ofEpochMilli(System.currentTimeMillis());
+        final Instant timestamp = tickAndConvert(EventClocks.coarse());
+        assertFalse(timestamp.isBefore(before));
+        assertEquals(0, timestamp.getNano() % 1000000);
+    }
+
+    @Test
+    public void monotonicClockNeverGoesBackwards() {
+        final EventClock clock = EventClocks.monotonic();
+        final Instant first = tickAndConvert(clock);
+        final Instant second = tickAndConvert(clock);
+        assertFalse(second.isBefore(first));
+        assertTrue(Duration.between(first, Instant.now()).abs().compareTo(Duration.ofMinutes(1)) < 0);
+    }
+
+    @Test
+    public void fixedClock() {
+        final Instant instant = Instant.parse("2015-03-01T12:00:00Z");
+        assertEquals(instant, tickAndConvert(EventClocks.fixed(instant)));
+    }
+
+    @Test
+    public void virtualClockOnlyMovesWhenTold() {
+        final VirtualClock clock = EventClocks.virtual(Instant.parse("2015-03-01T12:00:00Z"));
+        final long tick = clock.tick();
+        assertEquals(tick, clock.tick());
+        assertEquals(Instant.parse("2015-03-01T12:00:01.5Z"), clock.advance(Duration.ofMillis(1500)));
+        assertEquals(Instant.parse("2015-03-01T12:00:00Z"), clock.toInstant(tick));
+        assertEquals(Instant.parse("2015-03-01T12:00:01.5Z"), tickAndConvert(clock));
+    }
+
+    @Test
+    public void virtualClockCanBeSet() {
+        final VirtualClock clock = EventClocks.virtual(Instant.EPOCH);
+        clock.set(Instant.parse("1969-12-31T23:59:59.999999999Z"));
+        assertEquals(Instant.parse("1969-12-31T23:59:59.999999999Z"), clock.now());
+        assertEquals(clock.now(), tickAndConvert(clock));
+    }
+
+    @Test
+    public void notInstantiable() {
+        assertThat(EventClocks.class, isNotInstantiable());
+    }
+
+    private static Instant tickAndConvert(final EventClock clock) {
+        return clock.toInstant(clock.tick());
+    }
+}
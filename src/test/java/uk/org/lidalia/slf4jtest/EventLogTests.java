@@ -0,0 +1,97 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class EventLogTests {
+
+    private final EventLog<Integer> eventLog = new EventLog<>();
+
+    @Test
+    public void emptyLogHasEmptySnapshot() {
+        assertEquals(Collections.emptyList(), eventLog.snapshot());
+    }
+
+    @Test
+    public void snapshotPreservesOrderAcrossChunks() {
+        final List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < EventLog.CHUNK_SIZE * 3 + 7; i++) {
+            eventLog.add(i);
+            expected.add(i);
+        }
+        assertEquals(expected, eventLog.snapshot());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterAdds() {
+        eventLog.add(1);
+        final List<Integer> snapshot = eventLog.snapshot();
+        eventLog.add(2);
+        assertEquals(asList(1), snapshot);
+        assertEquals(asList(1, 2), eventLog.snapshot());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByClear() {
+        eventLog.add(1);
+        final List<Integer> snapshot = eventLog.snapshot();
+        eventLog.clear();
+        assertEquals(asList(1), snapshot);
+        assertEquals(Collections.emptyList(), eventLog.snapshot());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsUnmodifiable() {
+        eventLog.add(1);
+        eventLog.snapshot().add(2);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullElementsRejected() {
+        eventLog.add(null);
+    }
+
+    @Test
+    public void concurrentAddsAreAllRetained() throws InterruptedException {
+        final int threadCount = 8;
+        final int perThread = EventLog.CHUNK_SIZE * 4;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t * perThread;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        eventLog.add(offset + i);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final Set<Integer> logged = new HashSet<>(eventLog.snapshot());
+        assertEquals(threadCount * perThread, logged.size());
+    }
+
+    @Test
+    public void estimatedSizeIsMaintainedOnAddAndClear() {
+        final EventLog<String> sized = new EventLog<>(element -> element.length());
+        sized.add("abc");
+        sized.add("de");
+        assertEquals(5, sized.getEstimatedSize());
+        sized.clear();
+        assertEquals(0, sized.getEstimatedSize());
+    }
+}
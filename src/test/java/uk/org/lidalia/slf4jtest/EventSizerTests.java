@@ -0,0 +1,63 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import static org.junit.Assert.assertEquals;
+import static uk.org.lidalia.slf4jext.Level.INFO;
+
+public class EventSizerTests {
+
+    private final EventSizer sizer = new EventSizer();
+    private final Map<String, String> mdc = ImmutableMap.of("key", "value");
+    private final long mdcSize = LoggingEvent.estimateSize(mdc);
+
+    @Test
+    public void chargesASharedMdcToTheFirstEventOfARun() {
+        final LoggingEvent first = new LoggingEvent(INFO, mdc, "message");
+        final LoggingEvent second = new LoggingEvent(INFO, mdc, "message");
+
+        assertEquals(first.estimateSize() + mdcSize, sizer.estimate(first));
+        assertEquals(second.estimateSize(), sizer.estimate(second));
+    }
+
+    @Test
+    public void chargesAnMdcAgainOnceAnotherHasBeenCharged() {
+        final Map<String, String> other = ImmutableMap.of("key", "other");
+        final LoggingEvent event = new LoggingEvent(INFO, mdc, "message");
+        sizer.estimate(event);
+        sizer.estimate(new LoggingEvent(INFO, other, "message"));
+
+        assertEquals(event.estimateSize() + mdcSize, sizer.estimate(event));
+    }
+
+    @Test
+    public void chargesAnMdcAgainAfterReset() {
+        final LoggingEvent event = new LoggingEvent(INFO, mdc, "message");
+        sizer.estimate(event);
+        sizer.reset();
+
+        assertEquals(event.estimateSize() + mdcSize, sizer.estimate(event));
+    }
+
+    @Test
+    public void chargeDoesNotDependOnTheEstimatingThread() throws InterruptedException {
+        final LoggingEvent event = new LoggingEvent(INFO, mdc, "message");
+        final AtomicLong charged = new AtomicLong();
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                charged.set(sizer.estimate(event));
+            }
+        });
+        other.start();
+        other.join();
+
+        assertEquals(event.estimateSize() + mdcSize, charged.get());
+        assertEquals(event.estimateSize(), sizer.estimate(event));
+    }
+}
@@ -15,6 +15,7 @@ import static uk.org.lidalia.slf4jtest.LoggingEvent.info;
 import static uk.org.lidalia.slf4jtest.LoggingEvent.trace;
 import static uk.org.lidalia.slf4jtest.LoggingEvent.warn;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
@@ -764,6 +765,57 @@ public class LoggingEventTests
     }
 
 
+    @Test
+    public void timestampFromFactoryClock()
+    {
+        final VirtualClock clock = EventClocks.virtual(Instant.parse("2015-03-01T12:00:00Z"));
+        TestLoggerFactory.getInstance().setClock(clock);
+        try
+        {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("logger");
+            logger.info("first");
+            clock.advance(Duration.ofMillis(5));
+            logger.info("second");
+            final List<LoggingEvent> events = logger.getLoggingEvents();
+            Assert.assertEquals(Instant.parse("2015-03-01T12:00:00Z"), events.get(0).getTimestamp());
+            Assert.assertEquals(Instant.parse("2015-03-01T12:00:00.005Z"), events.get(1).getTimestamp());
+        }
+        finally
+        {
+            TestLoggerFactory.getInstance().setClock(EventClocks.system());
+        }
+    }
+
+
+    @Test
+    public void threadIdentity()
+    {
+        LoggingEvent event = info("Message");
+        Assert.assertEquals(Thread.currentThread().getId(), event.getThreadId());
+        Assert.assertEquals(Thread.currentThread().getName(), event.getThreadName());
+    }
+
+
+    @Test
+    public void threadNameIsNameWhenEventWasCreated()
+    {
+        final String originalName = Thread.currentThread().getName();
+        try
+        {
+            LoggingEvent before = info("Message");
+            Thread.currentThread().setName("renamed");
+            LoggingEvent after = info("Message");
+            Assert.assertEquals(originalName, before.getThreadName());
+            Assert.assertEquals("renamed", after.getThreadName());
+            Assert.assertEquals(before.getThreadId(), after.getThreadId());
+        }
+        finally
+        {
+            Thread.currentThread().setName(originalName);
+        }
+    }
+
+
     @Test(expected = IllegalStateException.class)
     public void creatingLoggerNotPresent()
     {
@@ -847,6 +899,41 @@ public class LoggingEventTests
     }
 
 
+    @Test
+    public void formattedMessage()
+    {
+        LoggingEvent event = new LoggingEvent(level,
+                                              "message with {} and {}",
+                                              arg1,
+                                              arg2);
+        Assert.assertEquals("message with " + arg1 + " and " + arg2,
+                            event.getFormattedMessage());
+    }
+
+
+    @Test
+    public void formattedMessageIsComputedOnce()
+    {
+        LoggingEvent event = new LoggingEvent(level, "message with {}", arg1);
+        Assert.assertSame(event.getFormattedMessage(), event.getFormattedMessage());
+    }
+
+
+    @Test
+    public void estimateSizeCountsArgumentsAndThrowableButLeavesTheMdcToTheStore()
+    {
+        final long bare = new LoggingEvent(level, "message").estimateSize();
+        final long withStringArg = new LoggingEvent(level, "message {}", "0123456789").estimateSize();
+        final long withMdc = new LoggingEvent(level, mdc, "message").estimateSize();
+        final long withThrowable = new LoggingEvent(level, throwable, "message").estimateSize();
+
+        Assert.assertTrue(bare > 0);
+        Assert.assertTrue(withStringArg >= bare + 10);
+        Assert.assertEquals(bare, withMdc);
+        Assert.assertTrue(withThrowable > bare);
+    }
+
+
     @Test
     public void nullArgument()
     {
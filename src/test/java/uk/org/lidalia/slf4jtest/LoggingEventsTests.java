@@ -0,0 +1,99 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jext.Level.INFO;
+
+public class LoggingEventsTests {
+
+    private final TestLogger logger = new TestLogger("name", TestLoggerFactory.getInstance());
+
+    @Test
+    public void eventsCreatedByLoggersHaveIncreasingSequenceNumbers() {
+        final LoggingEvent first = event();
+        final LoggingEvent second = event();
+        assertTrue(first.getSequence() > 0);
+        assertTrue(second.getSequence() > first.getSequence());
+    }
+
+    @Test
+    public void expectedEventsHaveNoSequenceNumber() {
+        assertEquals(0L, LoggingEvent.info("message").getSequence());
+    }
+
+    @Test
+    public void bySequenceOrdersByCreation() {
+        final LoggingEvent first = event();
+        final LoggingEvent second = event();
+        final List<LoggingEvent> events = asList(second, first);
+        Collections.sort(events, LoggingEvents.bySequence());
+        assertEquals(asList(first, second), events);
+    }
+
+    @Test
+    public void mergeInterleavesListsBySequence() {
+        final LoggingEvent e1 = event();
+        final LoggingEvent e2 = event();
+        final LoggingEvent e3 = event();
+        final LoggingEvent e4 = event();
+        final LoggingEvent e5 = event();
+
+        assertEquals(asList(e1, e2, e3, e4, e5),
+                LoggingEvents.merge(asList(e2, e4), asList(e1, e3, e5), Collections.<LoggingEvent>emptyList()));
+    }
+
+    @Test
+    public void mergeOfNoListsIsEmpty() {
+        assertEquals(Collections.emptyList(), LoggingEvents.merge(Collections.<List<LoggingEvent>>emptyList()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mergedListIsImmutable() {
+        LoggingEvents.merge(asList(event())).clear();
+    }
+
+    @Test
+    public void afterReturnsEventsLoggedSinceCursor() {
+        final LoggingEvent e1 = event();
+        final LoggingEvent e2 = event();
+        final LoggingEvent e3 = event();
+        final List<LoggingEvent> events = asList(e1, e2, e3);
+
+        assertEquals(events, LoggingEvents.after(events, 0L));
+        assertEquals(asList(e2, e3), LoggingEvents.after(events, e1.getSequence()));
+        assertEquals(Collections.emptyList(), LoggingEvents.after(events, e3.getSequence()));
+    }
+
+    @Test
+    public void lastSequenceIsCursorForAfter() {
+        final TestLogger testLogger = TestLoggerFactory.getTestLogger("logging.events.cursor");
+        testLogger.clear();
+        assertEquals(0L, LoggingEvents.lastSequence(testLogger.getLoggingEvents()));
+
+        testLogger.info("before");
+        final long cursor = LoggingEvents.lastSequence(testLogger.getLoggingEvents());
+        testLogger.info("after");
+
+        assertEquals(asList(LoggingEvent.info("after")), LoggingEvents.after(testLogger.getLoggingEvents(), cursor));
+        testLogger.clear();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void afterReturnsImmutableView() {
+        LoggingEvents.after(asList(event()), 0L).clear();
+    }
+
+    private LoggingEvent event() {
+        return new LoggingEvent(Optional.of(logger), INFO, ImmutableMap.<String, String>of(), Optional.empty(),
+                "message", new Object[0]);
+    }
+}
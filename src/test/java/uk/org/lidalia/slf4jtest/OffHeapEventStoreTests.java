@@ -0,0 +1,244 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jext.Level.INFO;
+import static uk.org.lidalia.slf4jext.Level.WARN;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.info;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.warn;
+
+public class OffHeapEventStoreTests {
+
+    private final OffHeapEventStore store = new OffHeapEventStore();
+    private final TestLogger logger = TestLoggerFactory.getTestLogger("off heap");
+    private final VirtualClock clock = EventClocks.virtual(Instant.parse("2014-03-01T10:15:30Z"));
+
+    @After
+    public void resetFactory() {
+        TestLoggerFactory.getInstance().setClock(EventClocks.system());
+        TestLoggerFactory.clearAll();
+    }
+
+    @Test
+    public void emptyStoreHasEmptySnapshot() {
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, store.getEstimatedSize());
+    }
+
+    @Test
+    public void decodesEveryPartOfAnEvent() {
+        TestLoggerFactory.getInstance().setClock(clock);
+        final RuntimeException throwable = new RuntimeException();
+        final LoggingEvent event = new LoggingEvent(Optional.of(logger), WARN, ImmutableMap.of("key", "value"),
+                Optional.of(MarkerFactory.getMarker("marker")), Optional.<Throwable>of(throwable),
+                "message {} {} {}", new Object[] { 1, null, "\u00e9t\u00e9" });
+
+        store.add(event);
+        final LoggingEvent decoded = store.snapshot().get(0);
+
+        assertEquals(warn(ImmutableMap.of("key", "value"), MarkerFactory.getMarker("marker"), throwable,
+                "message {} {} {}", "1", null, "\u00e9t\u00e9"), decoded);
+        assertSame(logger, decoded.getCreatingLogger());
+        assertSame(throwable, decoded.getThrowable().get());
+        assertEquals(Instant.parse("2014-03-01T10:15:30Z"), decoded.getTimestamp());
+        assertEquals(Thread.currentThread().getId(), decoded.getThreadId());
+        assertEquals(Thread.currentThread().getName(), decoded.getThreadName());
+        assertEquals(event.getFormattedMessage(), decoded.getFormattedMessage());
+    }
+
+    @Test
+    public void extractsTrailingThrowableBeforeEncoding() {
+        final RuntimeException throwable = new RuntimeException();
+        store.add(new LoggingEvent(Optional.of(logger), INFO, ImmutableMap.<String, String>of(),
+                Optional.empty(), "message {}", new Object[] { "arg", throwable }));
+
+        assertEquals(asList(info(throwable, "message {}", "arg")), store.snapshot());
+    }
+
+    @Test
+    public void preservesOrderAcrossSegments() {
+        final String large = Strings.repeat("x", OffHeapEventStore.SEGMENT_SIZE / 3);
+        final List<LoggingEvent> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            store.add(info("message {} {}", i, large));
+            expected.add(info("message {} {}", String.valueOf(i), large));
+        }
+        assertEquals(expected, store.snapshot());
+    }
+
+    @Test
+    public void preservesOrderAsSegmentsAndIndexGrow() {
+        final List<LoggingEvent> expected = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            store.add(info("message {}", i));
+            expected.add(info("message {}", String.valueOf(i)));
+        }
+        assertEquals(expected, store.snapshot());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByTheIndexGrowing() {
+        store.add(info("message1"));
+        final List<LoggingEvent> snapshot = store.snapshot();
+        for (int i = 0; i < 1000; i++) {
+            store.add(info("message2"));
+        }
+
+        assertEquals(asList(info("message1")), snapshot);
+    }
+
+    @Test
+    public void storesEventsLargerThanASegment() {
+        final String huge = Strings.repeat("x", OffHeapEventStore.SEGMENT_SIZE * 2);
+        store.add(info("small"));
+        store.add(info("huge {}", huge));
+        store.add(info("small again"));
+
+        assertEquals(asList(info("small"), info("huge {}", huge), info("small again")), store.snapshot());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterAddsOrClear() {
+        store.add(info("message1"));
+        final List<LoggingEvent> snapshot = store.snapshot();
+        store.add(info("message2"));
+        store.clear();
+        store.add(info("message3"));
+
+        assertEquals(asList(info("message1")), snapshot);
+        assertEquals(asList(info("message3")), store.snapshot());
+    }
+
+    @Test
+    public void estimatedSizeCountsDirectMemoryUsedAndIsReleasedOnClear() {
+        store.add(info("message"));
+        final long oneEvent = store.getEstimatedSize();
+        assertTrue(oneEvent > 0);
+        assertTrue(oneEvent < OffHeapEventStore.FIRST_SEGMENT_SIZE);
+
+        store.add(info("message"));
+        assertEquals(oneEvent * 2, store.getEstimatedSize());
+
+        store.clear();
+        assertEquals(0, store.getEstimatedSize());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsImmutable() {
+        store.add(info("message"));
+        store.snapshot().clear();
+    }
+
+    @Test
+    public void currentThreadSnapshotHoldsOnlyTheCallingThreadsEvents() throws InterruptedException {
+        store.add(info("mine1"));
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.add(info("theirs"));
+            }
+        });
+        other.start();
+        other.join();
+        store.add(info("mine2"));
+
+        assertTrue(store.isIndexedByThread());
+        assertEquals(asList(info("mine1"), info("mine2")), store.currentThreadSnapshot());
+        assertEquals(asList(info("mine1"), info("theirs"), info("mine2")), store.snapshot());
+    }
+
+    @Test
+    public void concurrentEncodingAndSnapshotsOnlySeeDecodableEvents() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 5000;
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        // each message is new to the codec's dictionary
+                        store.add(info("message " + (thread * perThread + i)));
+                    }
+                }
+            }));
+        }
+        for (final Thread writer : writers) {
+            writer.start();
+        }
+        final List<String> undecodable = new ArrayList<>();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (writing.get()) {
+                    for (final LoggingEvent event : store.snapshot()) {
+                        if (event.getMessage() == null) {
+                            undecodable.add(event.toString());
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        writing.set(false);
+        reader.join();
+
+        assertEquals(Collections.emptyList(), undecodable);
+        assertEquals(threads * perThread, store.snapshot().size());
+    }
+
+    @Test
+    public void concurrentAddsAreAllKept() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 1000;
+        final List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        store.add(info("message {}", thread * perThread + i));
+                    }
+                }
+            }));
+        }
+        for (final Thread writer : writers) {
+            writer.start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+
+        final List<LoggingEvent> snapshot = store.snapshot();
+        assertEquals(threads * perThread, snapshot.size());
+        final boolean[] seen = new boolean[threads * perThread];
+        for (final LoggingEvent event : snapshot) {
+            seen[Integer.parseInt((String) event.getArguments().get(0))] = true;
+        }
+        for (final boolean each : seen) {
+            assertTrue(each);
+        }
+    }
+}
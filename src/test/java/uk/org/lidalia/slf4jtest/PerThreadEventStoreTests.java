@@ -0,0 +1,207 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jext.Level.INFO;
+
+public class PerThreadEventStoreTests {
+
+    private final PerThreadEventStore store = new PerThreadEventStore();
+    private final TestLogger logger = new TestLogger("name", TestLoggerFactory.getInstance());
+
+    @Test
+    public void emptyStoreHasEmptySnapshot() {
+        assertEquals(Collections.emptyList(), store.snapshot());
+    }
+
+    @Test
+    public void keepsEventsOfOneThreadInOrderAcrossChunks() {
+        final List<LoggingEvent> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final LoggingEvent event = event(i);
+            store.add(event);
+            expected.add(event);
+        }
+        assertEquals(expected, store.snapshot());
+    }
+
+    @Test
+    public void mergesThreadsInSequenceOrder() throws InterruptedException {
+        final List<LoggingEvent> created = Collections.synchronizedList(new ArrayList<LoggingEvent>());
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        final LoggingEvent event = event(i);
+                        created.add(event);
+                        store.add(event);
+                    }
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final List<LoggingEvent> snapshot = store.snapshot();
+        assertEquals(2000, snapshot.size());
+        for (int i = 1; i < snapshot.size(); i++) {
+            assertTrue(snapshot.get(i - 1).getSequence() < snapshot.get(i).getSequence());
+        }
+        assertTrue(snapshot.containsAll(created));
+    }
+
+    @Test
+    public void keepsEventsOfThreadsThatHaveEnded() throws InterruptedException {
+        final LoggingEvent first = event(1);
+        store.add(first);
+        final CountDownLatch added = new CountDownLatch(1);
+        final LoggingEvent[] inOtherThread = new LoggingEvent[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                inOtherThread[0] = event(2);
+                store.add(inOtherThread[0]);
+                added.countDown();
+            }
+        });
+        thread.start();
+        added.await();
+        thread.join();
+        final LoggingEvent last = event(3);
+        store.add(last);
+
+        assertEquals(asList(first, inOtherThread[0], last), store.snapshot());
+    }
+
+    @Test
+    public void snapshotIsReusedUntilEventsAreAdded() {
+        store.add(event(1));
+        final List<LoggingEvent> snapshot = store.snapshot();
+        assertSame(snapshot, store.snapshot());
+
+        store.add(event(2));
+        assertEquals(asList(snapshot.get(0), event(2)), store.snapshot());
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void clearDiscardsEventsOfAllThreads() throws InterruptedException {
+        store.add(event(1));
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.add(event(2));
+            }
+        });
+        thread.start();
+        thread.join();
+        final List<LoggingEvent> beforeClear = store.snapshot();
+        store.clear();
+
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, store.getEstimatedSize());
+        assertEquals(2, beforeClear.size());
+
+        final LoggingEvent afterClear = event(3);
+        store.add(afterClear);
+        assertEquals(asList(afterClear), store.snapshot());
+    }
+
+    @Test
+    public void estimatedSizeSumsAllThreads() {
+        final LoggingEvent event = event(1);
+        store.add(event);
+        assertEquals(event.estimateSize(), store.getEstimatedSize());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsImmutable() {
+        store.add(event(1));
+        store.snapshot().clear();
+    }
+
+    @Test
+    public void sharedAddIsSeenByBothStores() {
+        final PerThreadEventStore shared = new PerThreadEventStore();
+        final LoggingEvent first = event(1);
+        final LoggingEvent second = event(2);
+        store.add(first, shared);
+        shared.add(second);
+
+        assertEquals(asList(first), store.snapshot());
+        assertEquals(asList(first, second), shared.snapshot());
+        assertEquals(first.estimateSize(), store.getEstimatedSize());
+        assertEquals(first.estimateSize() + second.estimateSize(), shared.getEstimatedSize());
+    }
+
+    @Test
+    public void clearingOneStoreDoesNotClearTheStoreItSharesWith() {
+        final PerThreadEventStore shared = new PerThreadEventStore();
+        final LoggingEvent first = event(1);
+        store.add(first, shared);
+        store.clear();
+        final LoggingEvent second = event(2);
+        store.add(second, shared);
+
+        assertEquals(asList(second), store.snapshot());
+        assertEquals(asList(first, second), shared.snapshot());
+
+        shared.clear();
+        final LoggingEvent third = event(3);
+        store.add(third, shared);
+        assertEquals(asList(second, third), store.snapshot());
+        assertEquals(asList(third), shared.snapshot());
+    }
+
+    @Test
+    public void currentThreadSnapshotOnlyHasThisThreadsEvents() throws InterruptedException {
+        final PerThreadEventStore shared = new PerThreadEventStore();
+        final LoggingEvent mine = event(1);
+        store.add(mine, shared);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.add(event(2), shared);
+            }
+        });
+        thread.start();
+        thread.join();
+        final LoggingEvent alsoMine = event(3);
+        shared.add(alsoMine);
+
+        assertTrue(store.isIndexedByThread());
+        assertEquals(asList(mine), store.currentThreadSnapshot());
+        assertEquals(asList(mine, alsoMine), shared.currentThreadSnapshot());
+        assertEquals(3, shared.snapshot().size());
+    }
+
+    @Test
+    public void currentThreadSnapshotIsEmptyAfterClear() {
+        store.add(event(1));
+        store.clear();
+        assertEquals(Collections.emptyList(), store.currentThreadSnapshot());
+    }
+
+    private LoggingEvent event(final int argument) {
+        return new LoggingEvent(Optional.of(logger), INFO, ImmutableMap.<String, String>of(), Optional.empty(),
+                "message {}", new Object[] { argument });
+    }
+}
@@ -0,0 +1,116 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class ResettableThreadLocalTests {
+
+    private final ResettableThreadLocal<String> threadLocal = new ResettableThreadLocal<>("initial");
+
+    @Test
+    public void getReturnsInitialValue() {
+        assertEquals("initial", threadLocal.get());
+    }
+
+    @Test
+    public void setChangesValueForThisThread() {
+        threadLocal.set("changed");
+        assertEquals("changed", threadLocal.get());
+    }
+
+    @Test
+    public void removeRestoresInitialValue() {
+        threadLocal.set("changed");
+        threadLocal.remove();
+        assertEquals("initial", threadLocal.get());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void setDoesNotPermitNull() {
+        threadLocal.set(null);
+    }
+
+    @Test
+    public void setDoesNotAffectOtherThreads() throws InterruptedException {
+        threadLocal.set("changed");
+        assertEquals("initial", inOtherThread());
+    }
+
+    @Test
+    public void resetRestoresInitialValueForAllThreads() throws InterruptedException {
+        threadLocal.set("changed");
+        final AtomicReference<String> afterReset = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                threadLocal.set("changed in other thread");
+                threadLocal.reset();
+                afterReset.set(threadLocal.get());
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals("initial", afterReset.get());
+        assertEquals("initial", threadLocal.get());
+    }
+
+    @Test
+    public void initialValueCreatorCalledPerThread() throws InterruptedException {
+        final ResettableThreadLocal<List<String>> lists = new ResettableThreadLocal<>(Suppliers.<String>makeEmptyMutableList());
+        final AtomicReference<List<String>> otherThreadList = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherThreadList.set(lists.get());
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(otherThreadList.get(), lists.get());
+        assertEquals(new ArrayList<String>(), lists.get());
+    }
+
+    @Test
+    public void valuesOfDeadThreadsAreReclaimed() throws InterruptedException {
+        threadLocal.get();
+        for (int i = 0; i < 10; i++) {
+            inOtherThread();
+        }
+        assertEquals(0, threadLocal.getReclaimedCount());
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (threadLocal.getReclaimedCount() < 10 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(10, threadLocal.getReclaimedCount());
+        assertEquals(1, threadLocal.getHeldCount());
+    }
+
+    @Test
+    public void resetDoesNotCountAsReclaimed() throws InterruptedException {
+        threadLocal.set("changed");
+        threadLocal.reset();
+        assertEquals(1, threadLocal.getHeldCount());
+        assertEquals(0, threadLocal.getReclaimedCount());
+    }
+
+    private String inOtherThread() throws InterruptedException {
+        final AtomicReference<String> result = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(threadLocal.get());
+            }
+        });
+        thread.start();
+        thread.join();
+        return result.get();
+    }
+}
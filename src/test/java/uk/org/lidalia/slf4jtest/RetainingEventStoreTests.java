@@ -0,0 +1,143 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import uk.org.lidalia.slf4jext.Level;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.debug;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.error;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.info;
+
+public class RetainingEventStoreTests {
+
+    private final TimerWheel timerWheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 16, "test-timer");
+
+    @Test
+    public void maxEventsDropsOldest() {
+        final RetainingEventStore store = store(RetentionPolicy.unlimited().withMaxEvents(2));
+        store.add(info("1"));
+        store.add(info("2"));
+        store.add(info("3"));
+        assertEquals(asList(info("2"), info("3")), store.snapshot());
+        assertEquals(1, store.getDroppedCount());
+    }
+
+    @Test
+    public void maxEventsPerLevelOnlyDropsThatLevel() {
+        final RetainingEventStore store = store(RetentionPolicy.unlimited().withMaxEvents(Level.DEBUG, 2));
+        store.add(debug("1"));
+        store.add(error("2"));
+        store.add(debug("3"));
+        store.add(error("4"));
+        store.add(debug("5"));
+        assertEquals(asList(error("2"), debug("3"), error("4"), debug("5")), store.snapshot());
+        assertEquals(1, store.getDroppedCount());
+    }
+
+    @Test
+    public void maxBytesDropsOldestButAlwaysKeepsNewest() {
+        final long eventSize = info("1").estimateSize();
+        final RetainingEventStore store = store(RetentionPolicy.unlimited().withMaxBytes(eventSize * 2));
+        store.add(info("1"));
+        store.add(info("2"));
+        store.add(info("3"));
+        assertEquals(asList(info("2"), info("3")), store.snapshot());
+
+        final RetainingEventStore tiny = store(RetentionPolicy.unlimited().withMaxBytes(1));
+        tiny.add(info("1"));
+        tiny.add(info("2"));
+        assertEquals(asList(info("2")), tiny.snapshot());
+    }
+
+    @Test
+    public void expiredEventsAreRemoved() {
+        final RetainingEventStore store = store(RetentionPolicy.unlimited().withTimeToLive(Duration.ofHours(1)));
+        store.add(info("1"));
+        store.add(info("2"));
+        store.expire(System.nanoTime());
+        assertEquals(asList(info("1"), info("2")), store.snapshot());
+        store.expire(System.nanoTime() + TimeUnit.HOURS.toNanos(2));
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(2, store.getDroppedCount());
+    }
+
+    @Test
+    public void expiryIsDrivenByTimerWheel() throws InterruptedException {
+        final RetainingEventStore store = store(RetentionPolicy.unlimited().withTimeToLive(Duration.ofMillis(20)));
+        store.add(info("1"));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!store.snapshot().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Collections.emptyList(), store.snapshot());
+    }
+
+    @Test
+    public void callbackIsPassedDiscardedEvents() {
+        final List<LoggingEvent> discarded = new ArrayList<>();
+        final RetainingEventStore store = store(RetentionPolicy.unlimited()
+                .withMaxEvents(1)
+                .onLimit(new Consumer<LoggingEvent>() {
+                    @Override
+                    public void accept(LoggingEvent event) {
+                        discarded.add(event);
+                    }
+                }));
+        store.add(info("1"));
+        store.add(info("2"));
+        store.add(info("3"));
+        assertEquals(asList(info("1"), info("2")), discarded);
+        assertEquals(asList(info("3")), store.snapshot());
+    }
+
+    @Test
+    public void blockingStoreWaitsUntilCleared() throws InterruptedException {
+        final RetainingEventStore store = store(RetentionPolicy.unlimited()
+                .withMaxEvents(1)
+                .onLimit(RetentionPolicy.LimitAction.BLOCK));
+        store.add(info("1"));
+        final AtomicBoolean added = new AtomicBoolean();
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                store.add(info("2"));
+                added.set(true);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertFalse(added.get());
+        assertEquals(asList(info("1")), store.snapshot());
+
+        store.clear();
+        producer.join();
+        assertTrue(added.get());
+        assertEquals(asList(info("2")), store.snapshot());
+    }
+
+    @Test
+    public void clearResetsDroppedCount() {
+        final RetainingEventStore store = store(RetentionPolicy.unlimited().withMaxEvents(1));
+        store.add(info("1"));
+        store.add(info("2"));
+        store.clear();
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, store.getDroppedCount());
+    }
+
+    private RetainingEventStore store(final RetentionPolicy policy) {
+        return new RetainingEventStore(policy, timerWheel);
+    }
+}
@@ -0,0 +1,73 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import uk.org.lidalia.slf4jext.Level;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionPolicyTests {
+
+    @Test
+    public void unlimitedHasNoLimits() {
+        final RetentionPolicy policy = RetentionPolicy.unlimited();
+        assertTrue(policy.isUnlimited());
+        assertEquals(Integer.MAX_VALUE, policy.getMaxEvents());
+        assertEquals(Integer.MAX_VALUE, policy.getMaxEvents(Level.DEBUG));
+        assertEquals(Long.MAX_VALUE, policy.getMaxBytes());
+        assertEquals(Optional.empty(), policy.getTimeToLive());
+        assertEquals(RetentionPolicy.LimitAction.DROP, policy.getLimitAction());
+    }
+
+    @Test
+    public void withMethodsReturnCopies() {
+        final RetentionPolicy policy = RetentionPolicy.unlimited()
+                .withMaxEvents(100)
+                .withMaxEvents(Level.DEBUG, 10)
+                .withMaxBytes(1024)
+                .withTimeToLive(Duration.ofSeconds(5))
+                .onLimit(RetentionPolicy.LimitAction.BLOCK);
+
+        assertFalse(policy.isUnlimited());
+        assertEquals(100, policy.getMaxEvents());
+        assertEquals(10, policy.getMaxEvents(Level.DEBUG));
+        assertEquals(Integer.MAX_VALUE, policy.getMaxEvents(Level.ERROR));
+        assertEquals(1024, policy.getMaxBytes());
+        assertEquals(Optional.of(Duration.ofSeconds(5)), policy.getTimeToLive());
+        assertEquals(RetentionPolicy.LimitAction.BLOCK, policy.getLimitAction());
+        assertTrue(RetentionPolicy.unlimited().isUnlimited());
+    }
+
+    @Test
+    public void equality() {
+        assertEquals(RetentionPolicy.unlimited().withMaxEvents(Level.INFO, 3),
+                     RetentionPolicy.unlimited().withMaxEvents(Level.INFO, 3));
+        assertFalse(RetentionPolicy.unlimited().withMaxEvents(Level.INFO, 3)
+                .equals(RetentionPolicy.unlimited().withMaxEvents(Level.INFO, 4)));
+    }
+
+    @Test
+    public void droppingKeepsLimitsButNotAction() {
+        final RetentionPolicy dropping = RetentionPolicy.unlimited()
+                .withMaxEvents(5)
+                .onLimit(RetentionPolicy.LimitAction.BLOCK)
+                .dropping();
+        assertEquals(5, dropping.getMaxEvents());
+        assertEquals(RetentionPolicy.LimitAction.DROP, dropping.getLimitAction());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxEventsMustBePositive() {
+        RetentionPolicy.unlimited().withMaxEvents(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void callbackActionNeedsACallback() {
+        RetentionPolicy.unlimited().onLimit(RetentionPolicy.LimitAction.CALLBACK);
+    }
+}
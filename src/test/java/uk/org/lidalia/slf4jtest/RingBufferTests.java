@@ -0,0 +1,134 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RingBufferTests {
+
+    private final RingBuffer<Integer> ringBuffer = new RingBuffer<>(3);
+
+    @Test
+    public void emptyBufferHasEmptySnapshot() {
+        assertEquals(Collections.emptyList(), ringBuffer.snapshot());
+        assertEquals(0, ringBuffer.getDroppedCount());
+    }
+
+    @Test
+    public void keepsAllElementsUntilFull() {
+        ringBuffer.add(1);
+        ringBuffer.add(2);
+        ringBuffer.add(3);
+        assertEquals(asList(1, 2, 3), ringBuffer.snapshot());
+        assertEquals(0, ringBuffer.getDroppedCount());
+    }
+
+    @Test
+    public void keepsMostRecentElementsInOrderOnceFull() {
+        for (int i = 1; i <= 8; i++) {
+            ringBuffer.add(i);
+        }
+        assertEquals(asList(6, 7, 8), ringBuffer.snapshot());
+        assertEquals(5, ringBuffer.getDroppedCount());
+    }
+
+    @Test
+    public void clearDiscardsElementsAndDroppedCount() {
+        for (int i = 1; i <= 5; i++) {
+            ringBuffer.add(i);
+        }
+        ringBuffer.clear();
+        assertEquals(Collections.emptyList(), ringBuffer.snapshot());
+        assertEquals(0, ringBuffer.getDroppedCount());
+        ringBuffer.add(6);
+        assertEquals(asList(6), ringBuffer.snapshot());
+    }
+
+    @Test
+    public void clearReleasesElements() throws InterruptedException {
+        final RingBuffer<Object> buffer = new RingBuffer<>(3);
+        Object element = new Object();
+        final WeakReference<Object> reference = new WeakReference<>(element);
+        buffer.add(element);
+        element = null;
+
+        buffer.clear();
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (reference.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterAdds() {
+        ringBuffer.add(1);
+        final List<Integer> snapshot = ringBuffer.snapshot();
+        ringBuffer.add(2);
+        assertEquals(asList(1), snapshot);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotIsUnmodifiable() {
+        ringBuffer.add(1);
+        ringBuffer.snapshot().add(2);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nullElementsRejected() {
+        ringBuffer.add(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new RingBuffer<Integer>(0);
+    }
+
+    @Test
+    public void concurrentAddsKeepLastCapacityElements() throws InterruptedException {
+        final RingBuffer<Integer> shared = new RingBuffer<>(100);
+        final int threadCount = 8;
+        final int perThread = 1000;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        shared.add(i);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, shared.snapshot().size());
+        assertEquals(threadCount * perThread - 100, shared.getDroppedCount());
+    }
+
+    @Test
+    public void estimatedSizeOnlyCountsElementsInWindow() {
+        final RingBuffer<String> sized = new RingBuffer<>(2, element -> element.length());
+        sized.add("a");
+        sized.add("bb");
+        sized.add("cccc");
+        assertEquals(6, sized.getEstimatedSize());
+        sized.clear();
+        assertEquals(0, sized.getEstimatedSize());
+        sized.add("ddddd");
+        assertEquals(5, sized.getEstimatedSize());
+    }
+}
@@ -0,0 +1,304 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static uk.org.lidalia.slf4jtest.LoggingEvent.info;
+
+public class SpillingEventStoreTests {
+
+    private Path directory;
+    private EventSpill spill;
+    private SpillingEventStore store;
+    private long eventSize;
+
+    @Before
+    public void createStore() throws IOException {
+        directory = Files.createTempDirectory("spilling-event-store-tests");
+        eventSize = info("message {}", "0").estimateSize();
+        spill = new EventSpill(eventSize * 10, () -> directory);
+        store = new SpillingEventStore(spill);
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        store.clear();
+        spill.clear();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void emptyStoreHasEmptySnapshot() throws IOException {
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, journalFiles());
+    }
+
+    @Test
+    public void keepsEventsOnHeapUntilThresholdIsExceeded() throws IOException {
+        final List<LoggingEvent> events = events(10);
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+
+        assertEquals(events, store.snapshot());
+        assertEquals(eventSize * 10, store.getEstimatedSize());
+        assertEquals(0, journalFiles());
+    }
+
+    @Test
+    public void spillsOldestEventsAndReadsThemBackInOrder() throws IOException {
+        final List<LoggingEvent> events = events(100);
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+
+        assertEquals(events, store.snapshot());
+        assertTrue(store.getEstimatedSize() <= eventSize * 10);
+        assertEquals(2, journalFiles());
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterAddsOrClear() throws IOException {
+        final List<LoggingEvent> events = events(50);
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+        final List<LoggingEvent> snapshot = store.snapshot();
+        store.add(info("later"));
+        store.clear();
+        spill.clear();
+
+        assertEquals(events, snapshot);
+        assertEquals(Collections.emptyList(), store.snapshot());
+        assertEquals(0, store.getEstimatedSize());
+        assertEquals(0, spill.getEstimatedSize());
+        assertEquals(0, journalFiles());
+    }
+
+    @Test
+    public void spillsAgainAfterClear() throws IOException {
+        for (final LoggingEvent event : events(50)) {
+            store.add(event);
+        }
+        store.clear();
+        final List<LoggingEvent> events = events(50);
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+
+        assertEquals(events, store.snapshot());
+    }
+
+    @Test
+    public void spillsEventsLargerThanTheBatch() {
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            large.append('x');
+        }
+        final List<LoggingEvent> events = new ArrayList<>(events(5));
+        events.add(info("large {}", large.toString()));
+        events.addAll(events(5));
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+
+        assertEquals(events, store.snapshot());
+    }
+
+    @Test
+    public void eventsHeldByManyStoresAreCountedAndSpilledOnce() throws IOException {
+        final SpillingEventStore other = new SpillingEventStore(spill);
+        final List<LoggingEvent> events = events(5);
+        for (final LoggingEvent event : events) {
+            store.add(event);
+            other.add(event);
+        }
+        assertEquals(eventSize * 5, spill.getEstimatedSize());
+        assertEquals(0, journalFiles());
+
+        final List<LoggingEvent> more = events(50);
+        for (final LoggingEvent event : more) {
+            store.add(event);
+            other.add(event);
+        }
+        final List<LoggingEvent> all = new ArrayList<>(events);
+        all.addAll(more);
+
+        assertEquals(all, store.snapshot());
+        assertEquals(all, other.snapshot());
+        assertTrue(spill.getEstimatedSize() <= eventSize * 10);
+        assertEquals(all.size() * eventLength(), journalLength(".journal"), eventLength() * 10);
+    }
+
+    @Test
+    public void thresholdIsSharedByAllStores() throws IOException {
+        final SpillingEventStore other = new SpillingEventStore(spill);
+        final List<LoggingEvent> events = events(6);
+        final List<LoggingEvent> otherEvents = events(6);
+        for (int i = 0; i < 6; i++) {
+            store.add(events.get(i));
+            other.add(otherEvents.get(i));
+        }
+
+        assertEquals(2, journalFiles());
+        assertEquals(events, store.snapshot());
+        assertEquals(otherEvents, other.snapshot());
+        assertEquals(spill.getEstimatedSize(), store.getEstimatedSize() + other.getEstimatedSize());
+    }
+
+    @Test
+    public void clearingAStoreReleasesItsEventsFromTheThreshold() {
+        for (final LoggingEvent event : events(8)) {
+            store.add(event);
+        }
+        store.clear();
+
+        assertEquals(0, spill.getEstimatedSize());
+    }
+
+    @Test
+    public void keepsEventsOnHeapWhenTheyCannotBeSpilled() {
+        spill = new EventSpill(eventSize * 10, () -> directory.resolve("missing"));
+        store = new SpillingEventStore(spill);
+        final List<LoggingEvent> events = events(100);
+        for (final LoggingEvent event : events) {
+            store.add(event);
+        }
+
+        assertEquals(events, store.snapshot());
+        assertEquals(eventSize * 100, store.getEstimatedSize());
+        assertTrue(spill.getFailedCount() > 0);
+        assertTrue(spill.getFailedCount() <= 10);
+    }
+
+    @Test
+    public void failedSpillLeavesTheJournalAsItWas() throws IOException {
+        final List<LoggingEvent> events = events(100);
+        for (final LoggingEvent event : events.subList(0, 11)) {
+            store.add(event);
+        }
+        final Path index = journalFile(".index");
+        final Path moved = index.resolveSibling("moved");
+        Files.move(index, moved);
+        for (final LoggingEvent event : events.subList(11, 20)) {
+            store.add(event);
+        }
+        assertEquals(1, spill.getFailedCount());
+        Files.move(moved, index);
+
+        for (final LoggingEvent event : events.subList(20, 100)) {
+            store.add(event);
+        }
+
+        assertEquals(1, spill.getFailedCount());
+        assertEquals(events, store.snapshot());
+    }
+
+    @Test
+    public void otherStoresAddWhileEventsAreBeingSpilled() throws Exception {
+        final CountDownLatch spilling = new CountDownLatch(1);
+        final CountDownLatch added = new CountDownLatch(1);
+        spill = new EventSpill(eventSize * 10, () -> {
+            spilling.countDown();
+            Uninterruptibles.awaitUninterruptibly(added);
+            return directory;
+        });
+        store = new SpillingEventStore(spill);
+        final SpillingEventStore other = new SpillingEventStore(spill);
+        final List<LoggingEvent> events = events(11);
+        final Thread spiller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (final LoggingEvent event : events) {
+                    store.add(event);
+                }
+            }
+        });
+        spiller.start();
+        assertTrue(spilling.await(10, TimeUnit.SECONDS));
+
+        final Thread adder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other.add(info("while spilling"));
+                assertEquals(events, store.snapshot());
+                added.countDown();
+            }
+        });
+        adder.start();
+        adder.join(10000);
+        final boolean addedWhileSpilling = added.getCount() == 0;
+        added.countDown();
+        spiller.join();
+
+        assertTrue(addedWhileSpilling);
+        assertEquals(asList(info("while spilling")), other.snapshot());
+        assertEquals(events, store.snapshot());
+        assertEquals(2, journalFiles());
+    }
+
+    @Test
+    public void spilledArgumentsAreReadBackAsTheSameObjects() {
+        final List<Object> arguments = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final Object argument = new StringBuilder("argument ").append(i);
+            arguments.add(argument);
+            store.add(info("message {}", argument));
+        }
+
+        final List<LoggingEvent> snapshot = store.snapshot();
+        for (int i = 0; i < 50; i++) {
+            assertSame(arguments.get(i), snapshot.get(i).getArguments().get(0));
+        }
+    }
+
+    private long eventLength() {
+        return new EventCodec(true).encode(info("message {}", "0")).remaining();
+    }
+
+    private Path journalFile(final String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).findFirst().get();
+        }
+    }
+
+    private long journalLength(final String suffix) throws IOException {
+        return Files.size(journalFile(suffix));
+    }
+
+    private static List<LoggingEvent> events(final int count) {
+        final List<LoggingEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(info("message {}", String.valueOf(i % 10)));
+        }
+        return events;
+    }
+
+    private long journalFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package uk.org.lidalia.slf4jtest;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -11,6 +13,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.slf4j.MDC;
 
 import uk.org.lidalia.slf4jext.Level;
 import static java.util.Arrays.asList;
@@ -45,6 +48,37 @@ public class TestLoggerFactoryTests {
         assertSame(logger1, logger2);
     }
 
+    @Test
+    public void getLoggerConcurrentlyReturnsSameLogger() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final TestLogger[] got = new TestLogger[8];
+        final Thread[] threads = new Thread[got.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    got[index] = getInstance().getLogger("name1");
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (TestLogger logger : got) {
+            assertSame(getInstance().getLogger("name1"), logger);
+        }
+        Assert.assertEquals(1, TestLoggerFactory.getAllTestLoggers().size());
+    }
+
     @Test
     public void staticGetTestLoggerStringReturnsSame() throws Exception {
         TestLogger logger1 = TestLoggerFactory.getTestLogger("name1");
@@ -211,6 +245,25 @@ public class TestLoggerFactoryTests {
                             TestLoggerFactory.getAllLoggingEvents());
     }
 
+    @Test
+    public void getAllLoggingEventsByThreadGroupsEventsByThreadId() throws InterruptedException {
+        TestLoggerFactory.getTestLogger("name1").info("message1");
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TestLoggerFactory.getTestLogger("name2").info("message2");
+            }
+        });
+        t.start();
+        t.join();
+        TestLoggerFactory.getTestLogger("name2").info("message3");
+
+        Map<Long, List<LoggingEvent>> expected = new HashMap<>();
+        expected.put(Thread.currentThread().getId(), asList(info("message1"), info("message3")));
+        expected.put(t.getId(), asList(info("message2")));
+        Assert.assertEquals(expected, TestLoggerFactory.getAllLoggingEventsByThread());
+    }
+
     @Test
     public void clearOnlyClearsEventsLoggedInThisThread() throws InterruptedException {
         final TestLogger logger = TestLoggerFactory.getTestLogger("name");
@@ -261,6 +314,8 @@ public class TestLoggerFactoryTests {
         final OverridableProperties properties = mock(OverridableProperties.class);
         whenNew(OverridableProperties.class).withArguments("slf4jtest").thenReturn(properties);
         when(properties.getProperty("print.level", "OFF")).thenReturn("INFO");
+        when(properties.getProperty("capture.mode", "UNBOUNDED")).thenReturn("UNBOUNDED");
+        when(properties.getProperty("capture.capacity", "10000")).thenReturn("10000");
 
         Assert.assertEquals(Level.INFO, TestLoggerFactory.getInstance().getPrintLevel());
     }
@@ -290,6 +345,492 @@ public class TestLoggerFactoryTests {
 
     }
 
+    @Test
+    public void defaultCaptureModeIsUnbounded() {
+        Assert.assertEquals(CaptureMode.UNBOUNDED, TestLoggerFactory.getInstance().getCaptureMode());
+    }
+
+    @Test
+    @PrepareForTest(TestLoggerFactory.class)
+    public void captureModeTakenFromOverridableProperties() throws Exception {
+        final OverridableProperties properties = mock(OverridableProperties.class);
+        whenNew(OverridableProperties.class).withArguments("slf4jtest").thenReturn(properties);
+        when(properties.getProperty("print.level", "OFF")).thenReturn("OFF");
+        when(properties.getProperty("capture.mode", "UNBOUNDED")).thenReturn("RING_BUFFER");
+        when(properties.getProperty("capture.capacity", "10000")).thenReturn("2");
+
+        Assert.assertEquals(CaptureMode.RING_BUFFER, TestLoggerFactory.getInstance().getCaptureMode());
+        Assert.assertEquals(2, TestLoggerFactory.getInstance().getCaptureCapacity());
+    }
+
+    @Test
+    @PrepareForTest(TestLoggerFactory.class)
+    public void captureModeInvalidInOverridableProperties() throws Exception {
+        final OverridableProperties properties = mock(OverridableProperties.class);
+        whenNew(OverridableProperties.class).withArguments("slf4jtest").thenReturn(properties);
+        when(properties.getProperty("print.level", "OFF")).thenReturn("OFF");
+        when(properties.getProperty("capture.mode", "UNBOUNDED")).thenReturn("nonsense");
+        when(properties.getProperty("capture.capacity", "10000")).thenReturn("10000");
+
+        final IllegalStateException illegalStateException = shouldThrow(IllegalStateException.class, new Runnable() {
+            @Override
+            public void run() {
+                TestLoggerFactory.getInstance();
+            }
+        });
+        Assert.assertEquals("Invalid capture mode in property capture.mode of "
+                                + "file slf4jtest.properties or System property"
+                                + " slf4jtest.capture.mode",
+                            illegalStateException.getMessage());
+    }
+
+    @Test
+    public void ringBufferCaptureModeKeepsMostRecentEvents() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.info("discarded by mode change");
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.RING_BUFFER, 2);
+        try {
+            logger.info("message1");
+            logger.info("message2");
+            logger.info("message3");
+
+            Assert.assertEquals(asList(info("message2"), info("message3")), logger.getAllLoggingEvents());
+            Assert.assertEquals(asList(info("message2"), info("message3")), logger.getLoggingEvents());
+            Assert.assertEquals(asList(info("message2"), info("message3")), TestLoggerFactory.getAllLoggingEvents());
+            Assert.assertEquals(asList(info("message2"), info("message3")), TestLoggerFactory.getLoggingEvents());
+            Assert.assertEquals(1, logger.getDroppedLoggingEventCount());
+            Assert.assertEquals(1, TestLoggerFactory.getDroppedLoggingEventCount());
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void memoryUsageCountsASharedMdcSnapshotOnce() {
+        final TestLogger withoutMdc = TestLoggerFactory.getTestLogger("name1");
+        final TestLogger withMdc = TestLoggerFactory.getTestLogger("name2");
+        withoutMdc.info("message");
+        withoutMdc.info("message");
+        MDC.put("key", "value");
+        try {
+            withMdc.info("message");
+            final long first = withMdc.getMemoryUsage();
+            withMdc.info("message");
+
+            Assert.assertTrue(first > withoutMdc.getMemoryUsage() / 2);
+            Assert.assertEquals(first + withoutMdc.getMemoryUsage() / 2, withMdc.getMemoryUsage());
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    @Test
+    public void clearingAStoreReleasesTheMdcItCharged() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        MDC.put("key", "value");
+        try {
+            logger.info("message");
+            final long charged = logger.getMemoryUsage();
+            logger.clearAll();
+            logger.info("message");
+            Assert.assertEquals(charged, logger.getMemoryUsage());
+
+            TestLoggerFactory.clearAll();
+            Assert.assertEquals(0, logger.getMemoryUsage());
+            logger.info("message");
+            Assert.assertEquals(charged, logger.getMemoryUsage());
+        } finally {
+            MDC.clear();
+        }
+    }
+
+    @Test
+    public void ringBufferCaptureModeReadsThreadEventsFromTheSharedRing() throws InterruptedException {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.RING_BUFFER, 3);
+        try {
+            logger.info("mine1");
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("theirs1");
+                    logger.info("theirs2");
+                }
+            });
+            t.start();
+            t.join();
+            logger.info("mine2");
+
+            Assert.assertEquals(0, logger.getThreadEntryCount());
+            Assert.assertEquals(asList(info("mine2")), logger.getLoggingEvents());
+            Assert.assertEquals(asList(info("mine2")), TestLoggerFactory.getLoggingEvents());
+            Assert.assertEquals(asList(info("theirs1"), info("theirs2"), info("mine2")), logger.getAllLoggingEvents());
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void offHeapCaptureModeKeepsAllEventsWithArgumentsAsStrings() {
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.OFF_HEAP);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            logger.info("message1 {}", 1);
+            logger.info("message2");
+
+            Assert.assertEquals(asList(info("message1 {}", "1"), info("message2")), logger.getAllLoggingEvents());
+            Assert.assertEquals(asList(info("message1 {}", "1"), info("message2")), TestLoggerFactory.getLoggingEvents());
+            Assert.assertSame(logger, logger.getLoggingEvents().get(0).getCreatingLogger());
+            Assert.assertTrue(logger.getMemoryUsage() > 0);
+            Assert.assertTrue(logger.getMemoryUsage() < OffHeapEventStore.FIRST_SEGMENT_SIZE);
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void offHeapCaptureModeFindsEachThreadsEventsInTheSharedStore() throws InterruptedException {
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.OFF_HEAP);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            logger.info("mine1");
+            final Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("theirs");
+                }
+            });
+            other.start();
+            other.join();
+            logger.info("mine2");
+            final long usage = logger.getMemoryUsage();
+            logger.clear();
+            logger.info("mine3");
+
+            Assert.assertEquals(ThreadStorage.THREAD_LOCAL, getInstance().getThreadStorage());
+            Assert.assertEquals(asList(info("mine3")), logger.getLoggingEvents());
+            Assert.assertEquals(asList(info("mine1"), info("theirs"), info("mine2"), info("mine3")),
+                    logger.getAllLoggingEvents());
+            Assert.assertTrue(logger.getMemoryUsage() > usage);
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void spilledEventsAreReadBackWithThoseOnTheHeap() {
+        TestLoggerFactory.getInstance().setSpillThreshold(info("message {}", "0").estimateSize() * 4);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            final List<LoggingEvent> expected = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                logger.info("message {}", String.valueOf(i));
+                expected.add(info("message {}", String.valueOf(i)));
+            }
+
+            Assert.assertEquals(expected, logger.getAllLoggingEvents());
+            Assert.assertEquals(expected, logger.getLoggingEvents());
+            Assert.assertEquals(expected, TestLoggerFactory.getAllLoggingEvents());
+            Assert.assertSame(logger, logger.getAllLoggingEvents().get(0).getCreatingLogger());
+        } finally {
+            TestLoggerFactory.getInstance().setSpillThreshold(0);
+        }
+    }
+
+    @Test
+    public void compressedCaptureModeKeepsAllEvents() {
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.COMPRESSED);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            final List<LoggingEvent> expected = new ArrayList<>();
+            for (int i = 0; i < CompressedEventStore.SEGMENT_SIZE + 5; i++) {
+                logger.info("message {}", String.valueOf(i));
+                expected.add(info("message {}", String.valueOf(i)));
+            }
+
+            Assert.assertEquals(expected, logger.getAllLoggingEvents());
+            Assert.assertEquals(expected, TestLoggerFactory.getAllLoggingEvents());
+            Assert.assertTrue(logger.getCompressionRatio() >= 1.0);
+            Assert.assertTrue(getInstance().getCompressionRatio() >= 1.0);
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void compressionRatioIsOneWhenNothingIsCompressed() {
+        TestLoggerFactory.getTestLogger("name1").info("message");
+
+        Assert.assertEquals(1.0, TestLoggerFactory.getTestLogger("name1").getCompressionRatio(), 0.0);
+        Assert.assertEquals(1.0, getInstance().getCompressionRatio(), 0.0);
+    }
+
+    @Test
+    public void clearAllResetsDroppedCount() {
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.RING_BUFFER, 1);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            logger.info("message1");
+            logger.info("message2");
+            TestLoggerFactory.clearAll();
+
+            Assert.assertEquals(0, logger.getDroppedLoggingEventCount());
+            Assert.assertEquals(0, TestLoggerFactory.getDroppedLoggingEventCount());
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void getEventCountsReturnsCountsForAllLoggers() {
+        TestLoggerFactory.getTestLogger("name1").info("message1");
+        TestLoggerFactory.getTestLogger("name2").warn("message2");
+        TestLoggerFactory.getTestLogger("name2").warn("message3");
+
+        final Map<String, Map<Level, Long>> counts = TestLoggerFactory.getEventCounts();
+        Assert.assertEquals(asList("name1", "name2"), new ArrayList<>(counts.keySet()));
+        Assert.assertEquals(Long.valueOf(1), counts.get("name1").get(Level.INFO));
+        Assert.assertEquals(Long.valueOf(2), counts.get("name2").get(WARN));
+        Assert.assertEquals(Long.valueOf(0), counts.get("name2").get(Level.INFO));
+    }
+
+    @Test
+    public void memoryUsageIsTrackedPerLoggerAndReleasedOnClear() {
+        final TestLogger small = TestLoggerFactory.getTestLogger("small");
+        final TestLogger large = TestLoggerFactory.getTestLogger("large");
+        TestLoggerFactory.getTestLogger("idle");
+        small.info("message");
+        for (int i = 0; i < 10; i++) {
+            large.info("message {}", "argument " + i);
+        }
+
+        Assert.assertTrue(small.getMemoryUsage() > 0);
+        Assert.assertTrue(large.getMemoryUsage() > 10 * small.getMemoryUsage());
+        Assert.assertEquals(small.getMemoryUsage() + large.getMemoryUsage(), getInstance().getMemoryUsage());
+        Assert.assertEquals(asList("large", "small"), new ArrayList<>(getInstance().getMemoryUsageByLogger().keySet()));
+
+        large.clearAll();
+        Assert.assertEquals(0, large.getMemoryUsage());
+        Assert.assertEquals(small.getMemoryUsage(), getInstance().getMemoryUsage());
+    }
+
+    @Test
+    public void memoryUsageFollowsDroppedEvents() {
+        getInstance().setCaptureMode(CaptureMode.RING_BUFFER, 2);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            logger.info("message1");
+            final long one = logger.getMemoryUsage();
+            logger.info("message2");
+            logger.info("message3");
+            logger.info("message4");
+            Assert.assertEquals(2 * one, logger.getMemoryUsage());
+        } finally {
+            getInstance().setCaptureMode(CaptureMode.UNBOUNDED, TestLoggerFactory.DEFAULT_CAPTURE_CAPACITY);
+        }
+    }
+
+    @Test
+    public void sharedThreadStorageReadsThreadEventsFromAllThreads() throws InterruptedException {
+        getInstance().setThreadStorage(ThreadStorage.SHARED);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            logger.info("mine");
+            final Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("theirs");
+                }
+            });
+            other.start();
+            other.join();
+
+            Assert.assertEquals(asList(info("mine")), logger.getLoggingEvents());
+            Assert.assertEquals(asList(info("mine")), TestLoggerFactory.getLoggingEvents());
+            Assert.assertEquals(asList(info("mine"), info("theirs")), logger.getAllLoggingEvents());
+        } finally {
+            getInstance().setThreadStorage(ThreadStorage.THREAD_LOCAL);
+        }
+    }
+
+    @Test
+    public void sharedThreadStorageClearOnlyHidesThisThreadsEarlierEvents() {
+        getInstance().setThreadStorage(ThreadStorage.SHARED);
+        try {
+            final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+            logger.info("before");
+            TestLoggerFactory.clear();
+            logger.info("after");
+
+            Assert.assertEquals(asList(info("after")), logger.getLoggingEvents());
+            Assert.assertEquals(asList(info("after")), TestLoggerFactory.getLoggingEvents());
+            Assert.assertEquals(asList(info("before"), info("after")), TestLoggerFactory.getAllLoggingEvents());
+
+            TestLoggerFactory.clearAll();
+            logger.info("again");
+            Assert.assertEquals(asList(info("again")), logger.getLoggingEvents());
+        } finally {
+            getInstance().setThreadStorage(ThreadStorage.THREAD_LOCAL);
+        }
+    }
+
+    @Test
+    public void settingThreadStorageDiscardsEvents() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.info("message");
+        getInstance().setThreadStorage(ThreadStorage.SHARED);
+        try {
+            Assert.assertEquals(ThreadStorage.SHARED, getInstance().getThreadStorage());
+            Assert.assertEquals(Collections.emptyList(), logger.getLoggingEvents());
+            Assert.assertEquals(Collections.emptyList(), TestLoggerFactory.getAllLoggingEvents());
+        } finally {
+            getInstance().setThreadStorage(ThreadStorage.THREAD_LOCAL);
+        }
+        Assert.assertEquals(ThreadStorage.THREAD_LOCAL, getInstance().getThreadStorage());
+    }
+
+    @Test
+    public void entriesOfEndedThreadsAreReclaimed() throws InterruptedException {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        final long reclaimedBefore = getInstance().getReclaimedThreadEntryCount();
+        for (int i = 0; i < 5; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    logger.setEnabledLevels(Level.INFO);
+                    logger.info("message");
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ((logger.getReclaimedThreadEntryCount() < 5
+                || getInstance().getReclaimedThreadEntryCount() < reclaimedBefore + 5)
+                && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(5, logger.getReclaimedThreadEntryCount());
+        Assert.assertEquals(0, logger.getThreadEntryCount());
+        Assert.assertTrue(getInstance().getReclaimedThreadEntryCount() >= reclaimedBefore + 5);
+        Assert.assertEquals(5, logger.getAllLoggingEvents().size());
+    }
+
+    @Test
+    public void loggerAndFactoryViewsAreClearedIndependently() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.info("before");
+        logger.clearAll();
+        logger.info("after");
+
+        Assert.assertEquals(asList(info("after")), logger.getAllLoggingEvents());
+        Assert.assertEquals(asList(info("after")), logger.getLoggingEvents());
+        Assert.assertEquals(asList(info("before"), info("after")), TestLoggerFactory.getAllLoggingEvents());
+        Assert.assertEquals(asList(info("before"), info("after")), TestLoggerFactory.getLoggingEvents());
+
+        logger.clear();
+        Assert.assertEquals(Collections.emptyList(), logger.getLoggingEvents());
+        Assert.assertEquals(asList(info("before"), info("after")), TestLoggerFactory.getLoggingEvents());
+
+        TestLoggerFactory.getInstance().clearAllLoggers();
+        logger.info("last");
+        Assert.assertEquals(asList(info("last")), logger.getAllLoggingEvents());
+        Assert.assertEquals(asList(info("last")), TestLoggerFactory.getAllLoggingEvents());
+        Assert.assertEquals(asList(info("last")), TestLoggerFactory.getLoggingEvents());
+    }
+
+    @Test
+    public void clearHidesThisThreadsEarlierEventsAndEnabledLevelsInAllLoggers() throws InterruptedException {
+        final TestLogger logger1 = TestLoggerFactory.getTestLogger("name1");
+        final TestLogger logger2 = TestLoggerFactory.getTestLogger("name2");
+        logger1.info("before");
+        logger2.setEnabledLevels(WARN);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                logger1.info("theirs");
+            }
+        });
+        t.start();
+        t.join();
+
+        TestLoggerFactory.clear();
+        logger1.info("after");
+        logger2.info("after");
+
+        Assert.assertEquals(asList(info("after")), logger1.getLoggingEvents());
+        Assert.assertEquals(asList(info("after")), logger2.getLoggingEvents());
+        Assert.assertEquals(Level.enablableValueSet(), logger2.getEnabledLevels());
+        Assert.assertEquals(asList(info("before"), info("theirs"), info("after")), logger1.getAllLoggingEvents());
+    }
+
+    @Test
+    public void clearAllIsAppliedToEachLoggerWhenNextUsed() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.warn("before");
+        logger.setEnabledLevels(WARN);
+
+        TestLoggerFactory.clearAll();
+        logger.info("after");
+
+        Assert.assertEquals(asList(info("after")), logger.getAllLoggingEvents());
+        Assert.assertEquals(asList(info("after")), logger.getLoggingEvents());
+        Assert.assertEquals(Level.enablableValueSet(), logger.getEnabledLevels());
+        Assert.assertEquals(0L, logger.getEventCount(WARN));
+        Assert.assertEquals(1L, logger.getEventCount(Level.INFO));
+
+        TestLoggerFactory.clearAll();
+        TestLoggerFactory.clearAll();
+        Assert.assertEquals(0L, logger.getEventCount(Level.INFO));
+        Assert.assertEquals(Collections.emptyList(), logger.getAllLoggingEvents());
+    }
+
+    @Test
+    public void clearAllIsAppliedWhenLoggingNotWhenCheckingLevels() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.info("before");
+
+        TestLoggerFactory.clearAll();
+        Assert.assertTrue(logger.isInfoEnabled());
+        Assert.assertTrue(logger.isStorageAllocated());
+
+        logger.info("after");
+        Assert.assertEquals(asList(info("after")), logger.getAllLoggingEvents());
+        Assert.assertEquals(1L, logger.getEventCount(Level.INFO));
+    }
+
+    @Test
+    public void readingMemoryUsageReleasesLoggersClearedSinceTheyWereLastUsed() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.info("before");
+
+        TestLoggerFactory.clearAll();
+        Assert.assertTrue(logger.isStorageAllocated());
+
+        Assert.assertEquals(0L, getInstance().getMemoryUsage());
+        Assert.assertEquals(Collections.emptyMap(), getInstance().getMemoryUsageByLogger());
+        Assert.assertFalse(logger.isStorageAllocated());
+    }
+
+    @Test
+    public void clearedEventsOfThisThreadAreDiscardedBeforeItsNextEvents() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("name1");
+        logger.info("before");
+
+        TestLoggerFactory.clear();
+        getInstance().getMemoryUsage();
+        logger.clear();
+        logger.info("after");
+        Assert.assertEquals(asList(info("after")), logger.getLoggingEvents());
+
+        TestLoggerFactory.clear();
+        logger.info("last");
+        Assert.assertEquals(asList(info("last")), logger.getLoggingEvents());
+        Assert.assertEquals(asList(info("before"), info("after"), info("last")), logger.getAllLoggingEvents());
+    }
+
     @Test
     public void setLevel() {
         for (Level printLevel: Level.values()) {
@@ -4,7 +4,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.RandomStringUtils;
@@ -12,6 +14,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
 import org.slf4j.MDC;
 import org.slf4j.Marker;
 
@@ -31,6 +34,8 @@ import static java.util.Collections.EMPTY_LIST;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -49,6 +54,9 @@ import static uk.org.lidalia.slf4jtest.LoggingEvent.warn;
 public class TestLoggerTests {
 
     private static final String LOGGER_NAME = "uk.org";
+    // 256 bytes measured on a 64 bit JVM with compressed references, plus a
+    // quarter for JVMs that lay out the name, lock and rate array less tightly
+    private static final long MAX_IDLE_LOGGER_SIZE = 320;
     private final TestLogger testLogger = new TestLogger(LOGGER_NAME, TestLoggerFactory.getInstance());
     private final Marker marker = mock(Marker.class);
     private final String message = "message {} {} {}";
@@ -617,6 +625,71 @@ public class TestLoggerTests {
         testLogger.clear();
     }
 
+    @Test
+    public void disabledLevelDoesNotFormatArguments() {
+        final AtomicInteger formatCount = new AtomicInteger();
+        final Object countingArg = new Object() {
+            @Override
+            public String toString() {
+                formatCount.incrementAndGet();
+                return "counted";
+            }
+        };
+        testLogger.setEnabledLevels(INFO);
+
+        testLogger.trace(message, countingArg);
+        testLogger.debug(message, countingArg, countingArg);
+        testLogger.debug(message, countingArg, countingArg, countingArg);
+        testLogger.warn(marker, message, countingArg);
+        testLogger.error(marker, message, countingArg, countingArg);
+
+        assertEquals(0, formatCount.get());
+        assertEquals(Collections.emptyList(), testLogger.getLoggingEvents());
+
+        testLogger.info("message {}", countingArg);
+        assertEquals(0, formatCount.get());
+        assertEquals("message counted", testLogger.getLoggingEvents().get(0).getFormattedMessage());
+        assertEquals(1, formatCount.get());
+    }
+
+    @Test
+    public void argumentsNotFormattedUntilEventIsInspected() {
+        final AtomicInteger formatCount = new AtomicInteger();
+        final Object countingArg = new Object() {
+            @Override
+            public String toString() {
+                formatCount.incrementAndGet();
+                return "counted";
+            }
+        };
+
+        testLogger.info("message {}", countingArg, throwable);
+        assertEquals(0, formatCount.get());
+
+        final LoggingEvent event = testLogger.getLoggingEvents().get(0);
+        assertEquals(Optional.of(throwable), event.getThrowable());
+        assertEquals(asList(countingArg), event.getArguments());
+        assertEquals(info(mdcValues, throwable, "message {}", countingArg), event);
+        assertEquals(info(mdcValues, throwable, "message {}", countingArg).hashCode(), event.hashCode());
+        assertEquals(0, formatCount.get());
+
+        assertEquals("message counted", event.getFormattedMessage());
+        assertEquals("message counted", event.getFormattedMessage());
+        assertEquals(1, formatCount.get());
+    }
+
+    @Test
+    public void eventsShareMdcUntilItChanges() {
+        testLogger.info(message);
+        testLogger.info(message);
+        MDC.put("key3", "value3");
+        testLogger.info(message);
+
+        final List<LoggingEvent> events = testLogger.getLoggingEvents();
+        assertSame(events.get(0).getMdc(), events.get(1).getMdc());
+        assertNotSame(events.get(1).getMdc(), events.get(2).getMdc());
+    }
+
     @Test
     public void getLoggingEventsReturnsCopyNotView() {
         testLogger.debug(message);
@@ -735,6 +808,168 @@ public class TestLoggerTests {
         assertEquals(ImmutableSet.of(Level.WARN, Level.ERROR), testLogger.getEnabledLevels());
     }
 
+    @Test
+    public void eventCountsCountCallsAtEnabledLevels() {
+        testLogger.setEnabledLevels(INFO, ERROR);
+        testLogger.info("message");
+        testLogger.info("message {}", "arg");
+        testLogger.error("message");
+        testLogger.debug("message");
+
+        assertEquals(2, testLogger.getEventCount(INFO));
+        assertEquals(1, testLogger.getEventCount(ERROR));
+        assertEquals(0, testLogger.getEventCount(DEBUG));
+        assertEquals(0, testLogger.getEventCount(Level.OFF));
+        assertEquals(ImmutableMap.of(TRACE, 0L, DEBUG, 0L, INFO, 2L, WARN, 0L, ERROR, 1L), testLogger.getEventCounts());
+    }
+
+    @Test
+    public void clearAllResetsEventCounts() {
+        testLogger.info("message");
+        testLogger.clearAll();
+        assertEquals(0, testLogger.getEventCount(INFO));
+    }
+
+    @Test
+    public void storageIsOnlyAllocatedWhenFirstLoggedTo() {
+        testLogger.setEnabledLevels(INFO);
+        testLogger.debug("message");
+        testLogger.getLoggingEvents();
+        testLogger.getAllLoggingEvents();
+        assertEquals(0, testLogger.getEventCount(INFO));
+        assertFalse(testLogger.isStorageAllocated());
+
+        testLogger.info("message");
+        assertTrue(testLogger.isStorageAllocated());
+        assertEquals(asList(info(mdcValues, "message")), testLogger.getLoggingEvents());
+    }
+
+    @Test
+    public void idleLoggerRetainsLittleHeap() {
+        final TestLoggerFactory factory = TestLoggerFactory.getInstance();
+        final TestLogger idle = new TestLogger("com.example.IdleClass", factory);
+        idle.isDebugEnabled();
+        // the factory, and what it holds, is shared by every logger; taken
+        // before logging, as the factory's own stores then reach the logger
+        final GraphLayout shared = GraphLayout.parseInstance(factory);
+
+        assertTrue(retainedSize(idle, shared) <= MAX_IDLE_LOGGER_SIZE);
+
+        idle.info("message");
+        assertTrue(retainedSize(idle, shared) > MAX_IDLE_LOGGER_SIZE);
+    }
+
+    private static long retainedSize(final TestLogger logger, final GraphLayout shared) {
+        return GraphLayout.parseInstance(logger).subtract(shared).totalSize();
+    }
+
+    @Test
+    public void clearAllReleasesStorage() {
+        testLogger.info("message");
+        testLogger.clear();
+        assertTrue(testLogger.isStorageAllocated());
+
+        testLogger.clearAll();
+        assertFalse(testLogger.isStorageAllocated());
+        assertEquals(EMPTY_LIST, testLogger.getAllLoggingEvents());
+        assertEquals(0, testLogger.getThreadEntryCount());
+        assertEquals(0L, testLogger.getMemoryUsage());
+
+        testLogger.info("again");
+        assertEquals(asList(info(mdcValues, "again")), testLogger.getAllLoggingEvents());
+    }
+
+    @Test
+    public void countOnlyCaptureModeCountsWithoutCapturingEvents() {
+        TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.COUNT_ONLY);
+        try {
+            testLogger.info("message {}", "arg");
+            testLogger.warn("message", new Exception());
+
+            assertEquals(EMPTY_LIST, testLogger.getLoggingEvents());
+            assertEquals(EMPTY_LIST, testLogger.getAllLoggingEvents());
+            assertEquals(EMPTY_LIST, TestLoggerFactory.getAllLoggingEvents());
+            assertEquals(1, testLogger.getEventCount(INFO));
+            assertEquals(1, testLogger.getEventCount(WARN));
+        } finally {
+            TestLoggerFactory.getInstance().setCaptureMode(CaptureMode.UNBOUNDED);
+        }
+    }
+
+    @Test
+    public void samplingRateDefaultsToCapturingEverything() {
+        for (Level level : enablableValueSet()) {
+            assertEquals(1.0, testLogger.getSamplingRate(level), 0.0);
+        }
+    }
+
+    @Test
+    public void zeroSamplingRateCountsButDoesNotCapture() {
+        testLogger.setSamplingRate(DEBUG, 0.0);
+        testLogger.debug("message {}", "arg");
+        testLogger.debug("message");
+        testLogger.info("message");
+
+        assertEquals(asList(info(mdcValues, "message")), testLogger.getLoggingEvents());
+        assertEquals(2, testLogger.getEventCount(DEBUG));
+        assertEquals(2, testLogger.getSampledOutCount(DEBUG));
+        assertEquals(0, testLogger.getSampledOutCount(INFO));
+    }
+
+    @Test
+    public void partialSamplingRateCapturesSomeEvents() {
+        testLogger.setSamplingRate(TRACE, 0.5);
+        for (int i = 0; i < 1000; i++) {
+            testLogger.trace("message");
+        }
+        final long captured = testLogger.getLoggingEvents().size();
+        assertEquals(1000, captured + testLogger.getSampledOutCount(TRACE));
+        assertTrue(captured > 0 && captured < 1000);
+    }
+
+    @Test
+    public void samplingRateDefaultsToFactoryDefault() {
+        TestLoggerFactory.getInstance().setDefaultSamplingRate(WARN, 0.25);
+        try {
+            assertEquals(0.25, testLogger.getSamplingRate(WARN), 0.0);
+            testLogger.setSamplingRate(WARN, 0.75);
+            assertEquals(0.75, testLogger.getSamplingRate(WARN), 0.0);
+            testLogger.clearSamplingRates();
+            assertEquals(0.25, testLogger.getSamplingRate(WARN), 0.0);
+        } finally {
+            TestLoggerFactory.getInstance().setDefaultSamplingRate(WARN, 1.0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void samplingRateMustBeAProbability() {
+        testLogger.setSamplingRate(INFO, 1.5);
+    }
+
+    @Test
+    public void retentionPolicyLimitsEventsPerLevel() {
+        final TestLogger logger = TestLoggerFactory.getTestLogger("retained");
+        logger.setRetentionPolicy(RetentionPolicy.unlimited().withMaxEvents(DEBUG, 1));
+        try {
+            logger.error("error1");
+            logger.debug("debug1");
+            logger.debug("debug2");
+            logger.error("error2");
+
+            final List<LoggingEvent> expected = asList(error(mdcValues, "error1"), debug(mdcValues, "debug2"), error(mdcValues, "error2"));
+            assertEquals(expected, logger.getAllLoggingEvents());
+            assertEquals(expected, logger.getLoggingEvents());
+            assertEquals(1, logger.getDroppedLoggingEventCount());
+        } finally {
+            logger.clearRetentionPolicy();
+        }
+    }
+
+    @Test
+    public void retentionPolicyDefaultsToFactoryPolicy() {
+        assertEquals(TestLoggerFactory.getInstance().getRetentionPolicy(), testLogger.getRetentionPolicy());
+    }
+
     @Test
     public void clearAllChangesAllLevels() throws Exception {
         testLogger.setEnabledLevels(Level.WARN, Level.ERROR);
@@ -749,6 +984,23 @@ public class TestLoggerTests {
         assertEquals(Level.enablableValueSet(), testLogger.getEnabledLevels());
     }
 
+    @Test
+    public void setEnabledLevelsForAllThreadsDiscardsThreadOverrides() {
+        testLogger.setEnabledLevels(Level.TRACE);
+        testLogger.setEnabledLevelsForAllThreads(Level.WARN, Level.ERROR);
+        assertEquals(ImmutableSet.of(Level.WARN, Level.ERROR), testLogger.getEnabledLevels());
+        assertFalse(testLogger.isTraceEnabled());
+    }
+
+    @Test
+    public void clearAllKeepsLevelsSetForAllThreads() {
+        testLogger.setEnabledLevelsForAllThreads(Level.WARN, Level.ERROR);
+        testLogger.setEnabledLevels(Level.ERROR);
+        testLogger.clearAll();
+        assertEquals(ImmutableSet.of(Level.WARN, Level.ERROR), testLogger.getEnabledLevels());
+        assertTrue(testLogger.isWarnEnabled());
+    }
+
     @Test
     public void printsWhenPrintLevelEqualToEventLevel() {
         TestLoggerFactory.getInstance().setPrintLevel(Level.INFO);
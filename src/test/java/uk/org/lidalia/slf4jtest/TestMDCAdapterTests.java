@@ -8,7 +8,9 @@ import java.util.concurrent.CountDownLatch;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class TestMDCAdapterTests {
 
@@ -61,6 +63,35 @@ public class TestMDCAdapterTests {
         assertEquals(expected, testMDCAdapter.getCopyOfContextMap());
     }
 
+    @Test
+    public void getCopyOfContextMapIsSharedUntilContextChanges() {
+        testMDCAdapter.put(key, value);
+        Map<String, String> first = testMDCAdapter.getCopyOfContextMap();
+        testMDCAdapter.put(key, value);
+        testMDCAdapter.remove("absent");
+        assertSame(first, testMDCAdapter.getCopyOfContextMap());
+
+        testMDCAdapter.put(key, "other");
+        Map<String, String> second = testMDCAdapter.getCopyOfContextMap();
+        assertNotSame(first, second);
+        assertEquals(Collections.singletonMap(key, "other"), second);
+        assertEquals(Collections.singletonMap(key, value), first);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getCopyOfContextMapIsUnmodifiable() {
+        testMDCAdapter.put(key, value);
+        testMDCAdapter.getCopyOfContextMap().put("other", value);
+    }
+
+    @Test
+    public void setContextMapAllowsNullValues() {
+        Map<String, String> newValues = new HashMap<String, String>();
+        newValues.put(key, null);
+        testMDCAdapter.setContextMap(newValues);
+        assertEquals(newValues, testMDCAdapter.getCopyOfContextMap());
+    }
+
     @Test
     public void testMdcAdapterIsThreadLocal() throws InterruptedException {
         final CountDownLatch latch = new CountDownLatch(2);
@@ -0,0 +1,64 @@
+package uk.org.lidalia.slf4jtest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTests {
+
+    private final TimerWheel timerWheel = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(1), 8, "test-timer");
+
+    @Test
+    public void runsTasksInDeadlineOrderNoEarlierThanTheirDeadlines() throws InterruptedException {
+        final List<Integer> ran = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        final long start = System.nanoTime();
+        // deadlines beyond one turn of the wheel exercise the rounds count
+        schedule(start + TimeUnit.MILLISECONDS.toNanos(30), 3, ran, done);
+        schedule(start + TimeUnit.MILLISECONDS.toNanos(2), 1, ran, done);
+        schedule(start + TimeUnit.MILLISECONDS.toNanos(12), 2, ran, done);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(asList(1, 2, 3), ran);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void taskThatThrowsDoesNotStopOthers() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        timerWheel.schedule(System.nanoTime(), new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        timerWheel.schedule(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(5), new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    private void schedule(final long deadline,
+                          final int id,
+                          final List<Integer> ran,
+                          final CountDownLatch done) {
+        timerWheel.schedule(deadline, new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(System.nanoTime() >= deadline);
+                ran.add(id);
+                done.countDown();
+            }
+        });
+    }
+}